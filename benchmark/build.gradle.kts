@@ -1,8 +1,33 @@
 plugins {
     id("java")
-    id("application")
+    id("me.champeau.jmh") version "0.7.2"
 }
 
 dependencies {
     implementation(project(":library"))
-}
\ No newline at end of file
+}
+
+jmh {
+    jmhVersion = "1.37"
+    // report allocation rates along with the timings
+    profilers = listOf("gc")
+    jvmArgsAppend = listOf("-Dcountryboundaries.data=${rootProject.file("data").absolutePath}")
+}
+
+tasks.register<JavaExec>("jmhScaling") {
+    group = "benchmark"
+    description = "Runs the concurrent benchmarks with 1 to N threads and reports how they scale"
+    dependsOn("jmhJar")
+    classpath = files(tasks.named("jmhJar"))
+    mainClass = "de.westnordost.countryboundaries.benchmark.ScalingReport"
+    systemProperty("countryboundaries.data", rootProject.file("data").absolutePath)
+}
+
+tasks.register<JavaExec>("footprint") {
+    group = "benchmark"
+    description = "Reports load time, allocated bytes and retained heap for each data file and loader"
+    dependsOn("jmhJar")
+    classpath = files(tasks.named("jmhJar"))
+    mainClass = "de.westnordost.countryboundaries.benchmark.FootprintReport"
+    systemProperty("countryboundaries.data", rootProject.file("data").absolutePath)
+}
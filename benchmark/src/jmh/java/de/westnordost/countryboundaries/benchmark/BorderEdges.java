@@ -0,0 +1,142 @@
+package de.westnordost.countryboundaries.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/** Reads the edges of the borders of all regions in a boundaries file directly from its bytes,
+ *  not via the library, so that positions close to borders can be found without the lookups that
+ *  are benchmarked. Edges along the bounds of a cell are left out, they only result from clipping
+ *  the regions to the cells. */
+final class BorderEdges {
+
+    private final DataInputStream in;
+    private final int version;
+
+    /** longitude and latitude of the start and end of each edge */
+    private double[] edges = new double[4096];
+    private int size = 0;
+
+    private BorderEdges(DataInputStream in, int version) {
+        this.in = in;
+        this.version = version;
+    }
+
+    /** Return the edges of the borders in the given boundaries file in format version 2 to 4, as
+     *  longitude and latitude of the start and end of each edge */
+    static double[] read(byte[] data) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+        int version = in.readUnsignedShort();
+        if (version < 2 || version > 4) throw new IOException("Unsupported version " + version);
+
+        int idCount = in.readInt();
+        for (int i = 0; i < idCount; i++) {
+            in.skipBytes(in.readUnsignedShort());
+            in.readDouble();
+        }
+        int width = in.readInt();
+        int height = in.readInt() / width;
+        // offsets of the cells
+        if (version >= 3) in.skipBytes(4 * (width * height + 1));
+
+        BorderEdges reader = new BorderEdges(in, version);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                reader.readCell(
+                        -180.0 + 360.0 * x / width,
+                        +90.0 - 180.0 * (y + 1) / height,
+                        -180.0 + 360.0 * (x + 1) / width,
+                        +90.0 - 180.0 * y / height
+                );
+            }
+        }
+        return Arrays.copyOf(reader.edges, reader.size);
+    }
+
+    private void readCell(double lonMin, double latMin, double lonMax, double latMax)
+            throws IOException {
+        int containingCount = in.readUnsignedByte();
+        for (int i = 0; i < containingCount; i++) {
+            skipId();
+        }
+        int areasCount = in.readUnsignedByte();
+        for (int i = 0; i < areasCount; i++) {
+            readAreas(lonMin, latMin, lonMax, latMax);
+        }
+        // since version 4, a cell may be split into quadrants
+        if (version >= 4 && in.readUnsignedByte() == 4) {
+            double lonMid = (lonMin + lonMax) / 2;
+            double latMid = (latMin + latMax) / 2;
+            readCell(lonMin, latMin, lonMid, latMid);
+            readCell(lonMid, latMin, lonMax, latMid);
+            readCell(lonMin, latMid, lonMid, latMax);
+            readCell(lonMid, latMid, lonMax, latMax);
+        }
+    }
+
+    private void readAreas(double lonMin, double latMin, double lonMax, double latMax)
+            throws IOException {
+        skipId();
+        if (version == 2) {
+            // outer and inner rings, each with its size followed by its points
+            for (int r = 0; r < 2; r++) {
+                int ringCount = in.readUnsignedByte();
+                for (int i = 0; i < ringCount; i++) {
+                    readRing(in.readInt(), lonMin, latMin, lonMax, latMax);
+                }
+            }
+        } else {
+            // the sizes of all rings, followed by the points of all rings
+            int ringCount = in.readUnsignedByte() + in.readUnsignedByte();
+            int[] ringSizes = new int[ringCount];
+            for (int i = 0; i < ringCount; i++) {
+                ringSizes[i] = in.readInt();
+            }
+            for (int ringSize : ringSizes) {
+                readRing(ringSize, lonMin, latMin, lonMax, latMax);
+            }
+        }
+    }
+
+    private void readRing(
+            int pointCount, double lonMin, double latMin, double lonMax, double latMax
+    ) throws IOException {
+        int[] xs = new int[pointCount];
+        int[] ys = new int[pointCount];
+        for (int i = 0; i < pointCount; i++) {
+            xs[i] = in.readUnsignedShort();
+            ys[i] = in.readUnsignedShort();
+        }
+        for (int i = 0; i < pointCount; i++) {
+            int j = (i + 1) % pointCount;
+            if (isAlongBounds(xs[i], xs[j]) || isAlongBounds(ys[i], ys[j])) continue;
+            add(
+                    lonMin + xs[i] * (lonMax - lonMin) / 0xffff,
+                    latMin + ys[i] * (latMax - latMin) / 0xffff,
+                    lonMin + xs[j] * (lonMax - lonMin) / 0xffff,
+                    latMin + ys[j] * (latMax - latMin) / 0xffff
+            );
+        }
+    }
+
+    private void skipId() throws IOException {
+        // since version 3, an id is an index into the ids in the header, before it was inline
+        if (version == 2) in.skipBytes(in.readUnsignedShort());
+        else in.readUnsignedShort();
+    }
+
+    private void add(double lon1, double lat1, double lon2, double lat2) {
+        if (size + 4 > edges.length) edges = Arrays.copyOf(edges, edges.length * 2);
+        edges[size++] = lon1;
+        edges[size++] = lat1;
+        edges[size++] = lon2;
+        edges[size++] = lat2;
+    }
+
+    /** Whether an edge from a to b (both x or both y) runs along the bounds of the cell. The
+     *  quantized coordinates of the bounds may be off by one */
+    private static boolean isAlongBounds(int a, int b) {
+        return a <= 1 && b <= 1 || a >= 0xfffe && b >= 0xfffe;
+    }
+}
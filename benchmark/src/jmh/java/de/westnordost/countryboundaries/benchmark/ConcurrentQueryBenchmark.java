@@ -0,0 +1,108 @@
+package de.westnordost.countryboundaries.benchmark;
+
+import de.westnordost.countryboundaries.CountryBoundaries;
+import de.westnordost.countryboundaries.CountryBoundariesCache;
+import de.westnordost.countryboundaries.CountryIdSet;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/** Throughput of lookups from many threads at once in one shared CountryBoundaries. Run with
+ *  different numbers of threads (-t) or use {@link ScalingReport} to see how it scales. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(Threads.MAX)
+public class ConcurrentQueryBenchmark {
+
+    @Param({"360x180"})
+    public String raster;
+
+    @Param({"POPULATION", "BORDER"})
+    public Workload workload;
+
+    private CountryBoundaries boundaries;
+    private CountryBoundariesCache cache;
+    private CountryBoundariesCache cacheWithStatistics;
+    private CountryIdSet ids;
+    private double[] longitudes;
+    private double[] latitudes;
+
+    @Setup public void setUp() throws IOException {
+        boundaries = Datasets.load(raster);
+        ids = boundaries.idSetOf(Arrays.asList("DE", "FR", "US-TX", "RU", "BR"));
+        longitudes = new double[QueryBenchmark.POINT_COUNT];
+        latitudes = new double[QueryBenchmark.POINT_COUNT];
+        workload.generate(raster, boundaries, new Random(42), longitudes, latitudes);
+        // all threads share one cache, as they would in an application
+        cache = new CountryBoundariesCache(boundaries, QueryBenchmark.POINT_COUNT);
+        cacheWithStatistics =
+                new CountryBoundariesCache(boundaries, QueryBenchmark.POINT_COUNT, true);
+    }
+
+    @Benchmark public List<String> getIds(QueryBenchmark.Cursor cursor) {
+        int i = cursor.next();
+        return boundaries.getIds(longitudes[i], latitudes[i]);
+    }
+
+    @Benchmark public List<String> getIdsCached(QueryBenchmark.Cursor cursor) {
+        int i = cursor.next();
+        return cache.getIds(longitudes[i], latitudes[i]);
+    }
+
+    /** The statistics are written on every lookup, so they may get in the way of other threads */
+    @Benchmark public List<String> getIdsCachedWithStatistics(QueryBenchmark.Cursor cursor) {
+        int i = cursor.next();
+        return cacheWithStatistics.getIds(longitudes[i], latitudes[i]);
+    }
+
+    @Benchmark public boolean isInAny(QueryBenchmark.Cursor cursor) {
+        int i = cursor.next();
+        return boundaries.isInAny(longitudes[i], latitudes[i], ids);
+    }
+
+    @Benchmark public CountryIdSet getIntersectingIdSet(QueryBenchmark.Cursor cursor) {
+        int i = cursor.next();
+        double lon = longitudes[i];
+        double lat = Math.min(latitudes[i], 89.0);
+        return boundaries.getIntersectingIdSet(lon, lat, lon + 1.0, lat + 1.0);
+    }
+
+    /* Different kinds of queries at the same time, to see whether they get in each other's way */
+
+    @Benchmark @Group("mixed") @GroupThreads(2)
+    public List<String> mixedGetIds(QueryBenchmark.Cursor cursor) {
+        return getIds(cursor);
+    }
+
+    @Benchmark @Group("mixed") @GroupThreads(1)
+    public boolean mixedIsInAny(QueryBenchmark.Cursor cursor) {
+        return isInAny(cursor);
+    }
+
+    @Benchmark @Group("mixed") @GroupThreads(1)
+    public CountryIdSet mixedGetIntersectingIdSet(QueryBenchmark.Cursor cursor) {
+        return getIntersectingIdSet(cursor);
+    }
+}
@@ -0,0 +1,28 @@
+package de.westnordost.countryboundaries.benchmark;
+
+import de.westnordost.countryboundaries.CountryBoundaries;
+import de.westnordost.countryboundaries.CountryBoundariesUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/** Access to the boundaries files in the /data/ folder, by their raster size, e.g. "360x180" */
+final class Datasets {
+
+    private Datasets() {}
+
+    static File file(String raster) {
+        File directory = new File(System.getProperty("countryboundaries.data", "data"));
+        return new File(directory, "boundaries" + raster + ".ser");
+    }
+
+    static byte[] read(String raster) throws IOException {
+        return Files.readAllBytes(file(raster).toPath());
+    }
+
+    static CountryBoundaries load(String raster) throws IOException {
+        return CountryBoundariesUtils.deserializeFrom(new ByteArrayInputStream(read(raster)));
+    }
+}
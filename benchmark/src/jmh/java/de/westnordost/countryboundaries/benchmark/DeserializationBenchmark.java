@@ -0,0 +1,51 @@
+package de.westnordost.countryboundaries.benchmark;
+
+import de.westnordost.countryboundaries.CountryBoundaries;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/** Time deserializing a whole file with each loader, once the JVM is warmed up. The file is read
+ *  into memory once, so only the decoding is measured, not the file system. The bytes allocated
+ *  per load are reported by the gc profiler as gc.alloc.rate.norm. Memory-mapping only works on
+ *  files, so {@link Loader#MAPPED} is left out here. See {@link StartupBenchmark} for the time of
+ *  the first load from the file in a fresh JVM, with all loaders, and {@link FootprintReport} for
+ *  the retained heap. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DeserializationBenchmark {
+
+    @Param({"60x30", "180x90", "360x180"})
+    public String raster;
+
+    @Param({"STREAM", "LAZY", "REGIONAL"})
+    public Loader loader;
+
+    private byte[] bytes;
+
+    @Setup(Level.Trial) public void setUp() throws IOException {
+        bytes = Datasets.read(raster);
+    }
+
+    @Benchmark public CountryBoundaries load() throws IOException {
+        return loader.load(new ByteArrayInputStream(bytes));
+    }
+}
@@ -0,0 +1,90 @@
+package de.westnordost.countryboundaries.benchmark;
+
+import de.westnordost.countryboundaries.CountryBoundaries;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+
+/** Prints for each data file and loader how long loading takes, how many bytes are allocated
+ *  while loading and how much heap is retained after loading and after having queried every cell
+ *  of the raster once. The heap sizes are measured after garbage collection, so they are only
+ *  approximate. For the time of the first load in a fresh JVM, see {@link StartupBenchmark}. */
+public class FootprintReport {
+
+    private static final String[] RASTERS = {"60x30", "180x90", "360x180"};
+
+    private static final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+    public static void main(String[] args) throws Exception {
+        System.out.println(
+                "raster   loader    file size  load time   allocated   retained  retained after use"
+        );
+        for (String raster : RASTERS) {
+            File file = Datasets.file(raster);
+            for (Loader loader : Loader.values()) {
+                long heapBefore = usedHeap();
+                long allocatedBefore = allocatedBytes();
+                long time = System.nanoTime();
+
+                CountryBoundaries boundaries = loader.load(file);
+
+                long loadTime = System.nanoTime() - time;
+                long allocated = allocatedBefore >= 0 ? allocatedBytes() - allocatedBefore : -1;
+                long retained = usedHeap() - heapBefore;
+
+                queryEveryCell(boundaries, raster);
+                long retainedAfterUse = usedHeap() - heapBefore;
+
+                System.out.println(String.format(Locale.US,
+                        "%-8s %-8s %7.1f MB %7.0f ms %8s %8.1f MB %8.1f MB",
+                        raster, loader, mb(file.length()), loadTime * 1e-6,
+                        allocated >= 0 ? String.format(Locale.US, "%.1f MB", mb(allocated)) : "n/a",
+                        mb(retained), mb(retainedAfterUse)
+                ));
+                // keep it reachable until it has been measured
+                if (boundaries.getIdCount() < 0) throw new IllegalStateException();
+            }
+        }
+    }
+
+    /** Look up the center of each cell of the raster of the given size, e.g. "360x180" */
+    private static void queryEveryCell(CountryBoundaries boundaries, String raster) {
+        String[] size = raster.split("x");
+        int width = Integer.parseInt(size[0]);
+        int height = Integer.parseInt(size[1]);
+        for (int y = 0; y < height; y++) {
+            double latitude = 90.0 - 180.0 * (y + 0.5) / height;
+            for (int x = 0; x < width; x++) {
+                double longitude = -180.0 + 360.0 * (x + 0.5) / width;
+                if (boundaries.isLoaded(longitude, latitude)) {
+                    boundaries.getIds(longitude, latitude);
+                }
+            }
+        }
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    /** Bytes allocated by the current thread so far or -1 if the JVM can't tell */
+    private static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    private static double mb(long bytes) {
+        return bytes / (1024.0 * 1024.0);
+    }
+}
@@ -0,0 +1,54 @@
+package de.westnordost.countryboundaries.benchmark;
+
+import de.westnordost.countryboundaries.CountryBoundaries;
+import de.westnordost.countryboundaries.CountryBoundariesUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/** The different ways to load a CountryBoundaries from a file */
+public enum Loader {
+
+    /** Read and decode everything at once */
+    STREAM {
+        @Override CountryBoundaries load(InputStream inputStream) throws IOException {
+            return CountryBoundariesUtils.deserializeFrom(inputStream);
+        }
+    },
+
+    /** Read everything at once, but only decode cells when they are accessed the first time */
+    LAZY {
+        @Override CountryBoundaries load(InputStream inputStream) throws IOException {
+            return CountryBoundariesUtils.deserializeLazilyFrom(inputStream);
+        }
+    },
+
+    /** Memory-map the file, cells are read and decoded when they are accessed the first time */
+    MAPPED {
+        @Override CountryBoundaries load(File file) throws IOException {
+            return CountryBoundariesUtils.deserializeMappedFrom(file);
+        }
+
+        @Override CountryBoundaries load(InputStream inputStream) {
+            throw new UnsupportedOperationException("Only a file can be memory-mapped");
+        }
+    },
+
+    /** Read and decode only the cells in (roughly) Europe */
+    REGIONAL {
+        @Override CountryBoundaries load(InputStream inputStream) throws IOException {
+            return CountryBoundariesUtils.deserializeFrom(inputStream, -25.0, 34.0, 45.0, 72.0);
+        }
+    };
+
+    CountryBoundaries load(File file) throws IOException {
+        try (InputStream inputStream = new FileInputStream(file)) {
+            return load(inputStream);
+        }
+    }
+
+    /** Load from the given input stream. Not supported by {@link #MAPPED} */
+    abstract CountryBoundaries load(InputStream inputStream) throws IOException;
+}
@@ -0,0 +1,144 @@
+package de.westnordost.countryboundaries.benchmark;
+
+import de.westnordost.countryboundaries.CountryBoundaries;
+import de.westnordost.countryboundaries.CountryBoundariesCache;
+import de.westnordost.countryboundaries.CountryIdSet;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/** Time single lookups, one position of the chosen workload per benchmark invocation */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryBenchmark {
+
+    /** must be a power of two */
+    static final int POINT_COUNT = 1 << 16;
+
+    /** size of the bounding boxes for the bounding box queries, in degrees */
+    private static final double BOUNDS_SIZE = 1.0;
+
+    private static final List<String> IDS = Arrays.asList("DE", "FR", "US-TX", "RU", "BR");
+
+    @Param({"60x30", "180x90", "360x180"})
+    public String raster;
+
+    @Param({"UNIFORM", "POPULATION", "BORDER", "OCEAN"})
+    public Workload workload;
+
+    private CountryBoundaries boundaries;
+    private CountryBoundariesCache cache;
+    private double[] longitudes;
+    private double[] latitudes;
+
+    @Setup public void setUp() throws IOException {
+        boundaries = Datasets.load(raster);
+        longitudes = new double[POINT_COUNT];
+        latitudes = new double[POINT_COUNT];
+        workload.generate(raster, boundaries, new Random(42), longitudes, latitudes);
+        // as many slots as there are positions, so after warmup, most lookups are hits
+        cache = new CountryBoundariesCache(boundaries, POINT_COUNT);
+    }
+
+    /** Walks through the positions, separately for each thread */
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int index;
+
+        int next() {
+            index = (index + 1) & (POINT_COUNT - 1);
+            return index;
+        }
+    }
+
+    /** Id set to write the results of the bounding box queries into, separately for each thread */
+    @State(Scope.Thread)
+    public static class Result {
+        private CountryIdSet ids;
+
+        @Setup public void setUp(QueryBenchmark benchmark) {
+            ids = benchmark.boundaries.newIdSet();
+        }
+    }
+
+    @Benchmark public List<String> getIds(Cursor cursor) {
+        int i = cursor.next();
+        return boundaries.getIds(longitudes[i], latitudes[i]);
+    }
+
+    @Benchmark public List<String> getIdsCached(Cursor cursor) {
+        int i = cursor.next();
+        return cache.getIds(longitudes[i], latitudes[i]);
+    }
+
+    @Benchmark public boolean isIn(Cursor cursor) {
+        int i = cursor.next();
+        return boundaries.isIn(longitudes[i], latitudes[i], "DE");
+    }
+
+    @Benchmark public boolean isInAny(Cursor cursor) {
+        int i = cursor.next();
+        return boundaries.isInAny(longitudes[i], latitudes[i], IDS);
+    }
+
+    @Benchmark public Set<String> getContainingIds(Cursor cursor) {
+        int i = cursor.next();
+        double lon = longitudes[i];
+        double lat = latitudes[i];
+        return boundaries.getContainingIds(lon, lat, lon + BOUNDS_SIZE, maxLatitude(lat));
+    }
+
+    @Benchmark public Set<String> getIntersectingIds(Cursor cursor) {
+        int i = cursor.next();
+        double lon = longitudes[i];
+        double lat = latitudes[i];
+        return boundaries.getIntersectingIds(lon, lat, lon + BOUNDS_SIZE, maxLatitude(lat));
+    }
+
+    @Benchmark public CountryIdSet getContainingIdSet(Cursor cursor, Result result) {
+        int i = cursor.next();
+        double lon = longitudes[i];
+        double lat = latitudes[i];
+        boundaries.getContainingIdSet(lon, lat, lon + BOUNDS_SIZE, maxLatitude(lat), result.ids);
+        return result.ids;
+    }
+
+    @Benchmark public CountryIdSet getIntersectingIdSet(Cursor cursor, Result result) {
+        int i = cursor.next();
+        double lon = longitudes[i];
+        double lat = latitudes[i];
+        boundaries.getIntersectingIdSet(lon, lat, lon + BOUNDS_SIZE, maxLatitude(lat), result.ids);
+        return result.ids;
+    }
+
+    @Benchmark public Set<String> getExactIntersectingIds(Cursor cursor) {
+        int i = cursor.next();
+        double lon = longitudes[i];
+        double lat = latitudes[i];
+        return boundaries.getExactIntersectingIds(lon, lat, lon + BOUNDS_SIZE, maxLatitude(lat));
+    }
+
+    private static double maxLatitude(double minLatitude) {
+        return Math.min(minLatitude + BOUNDS_SIZE, 90.0);
+    }
+}
@@ -0,0 +1,87 @@
+package de.westnordost.countryboundaries.benchmark;
+
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/** Runs the {@link ConcurrentQueryBenchmark} with 1, 2, 4... up to as many threads as there are
+ *  processors and prints how the throughput scales with the number of threads. If the throughput
+ *  per thread drops a lot, threads get in each other's way, e.g. by contention on a lock or by
+ *  false sharing of cache lines. Note that with hyper-threading, the throughput per thread also
+ *  drops once there are more threads than physical cores. */
+public class ScalingReport {
+
+    /** Below this fraction of the throughput per thread of the single-threaded run, a result is
+     *  flagged */
+    private static final double MIN_EFFICIENCY = 0.75;
+
+    /** all except for the group benchmark, which has a fixed distribution of threads */
+    private static final String BENCHMARKS =
+            ConcurrentQueryBenchmark.class.getName()
+            + "\\.(getIds|getIdsCached|getIdsCachedWithStatistics|isInAny|getIntersectingIdSet)$";
+
+    private static final String DATA = System.getProperty("countryboundaries.data", "data");
+
+    public static void main(String[] args) throws Exception {
+        int maxThreads = Runtime.getRuntime().availableProcessors();
+        List<Integer> threadCounts = new ArrayList<>();
+        for (int threads = 1; threads < maxThreads; threads *= 2) {
+            threadCounts.add(threads);
+        }
+        threadCounts.add(maxThreads);
+
+        // benchmark name + parameters -> throughput for each thread count
+        Map<String, double[]> results = new LinkedHashMap<>();
+        for (int t = 0; t < threadCounts.size(); t++) {
+            Options options = new OptionsBuilder()
+                    .include(BENCHMARKS)
+                    .threads(threadCounts.get(t))
+                    .jvmArgsAppend("-Dcountryboundaries.data=" + DATA)
+                    .build();
+            Collection<RunResult> runResults = new Runner(options).run();
+            for (RunResult result : runResults) {
+                String key = result.getParams().getBenchmark() + " " + paramsOf(result);
+                double[] scores = results.get(key);
+                if (scores == null) {
+                    scores = new double[threadCounts.size()];
+                    results.put(key, scores);
+                }
+                scores[t] = result.getPrimaryResult().getScore();
+            }
+        }
+
+        System.out.println();
+        for (Map.Entry<String, double[]> entry : results.entrySet()) {
+            System.out.println(entry.getKey());
+            System.out.println(" threads     ops/us   speedup  efficiency");
+            double[] scores = entry.getValue();
+            for (int t = 0; t < threadCounts.size(); t++) {
+                int threads = threadCounts.get(t);
+                double speedup = scores[t] / scores[0];
+                double efficiency = speedup / threads;
+                System.out.println(String.format(Locale.US,
+                        "%8d %10.2f %8.2fx %10.0f%%%s",
+                        threads, scores[t], speedup, efficiency * 100,
+                        efficiency < MIN_EFFICIENCY ? "  <- poor scaling, contention?" : ""
+                ));
+            }
+            System.out.println();
+        }
+    }
+
+    private static String paramsOf(RunResult result) {
+        StringBuilder builder = new StringBuilder();
+        for (String key : result.getParams().getParamsKeys()) {
+            builder.append(key).append('=').append(result.getParams().getParam(key)).append(' ');
+        }
+        return builder.toString().trim();
+    }
+}
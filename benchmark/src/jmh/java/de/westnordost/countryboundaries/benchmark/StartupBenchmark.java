@@ -0,0 +1,48 @@
+package de.westnordost.countryboundaries.benchmark;
+
+import de.westnordost.countryboundaries.CountryBoundaries;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** Time from nothing to the first answer in a fresh JVM: loading a file and doing one lookup */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(10)
+public class StartupBenchmark {
+
+    @Param({"60x30", "180x90", "360x180"})
+    public String raster;
+
+    @Param({"STREAM", "LAZY", "MAPPED", "REGIONAL"})
+    public Loader loader;
+
+    private File file;
+
+    @Setup public void setUp() {
+        file = Datasets.file(raster);
+    }
+
+    @Benchmark public List<String> loadAndGetIds() throws IOException {
+        CountryBoundaries boundaries = loader.load(file);
+        // Berlin
+        return boundaries.getIds(13.40, 52.52);
+    }
+}
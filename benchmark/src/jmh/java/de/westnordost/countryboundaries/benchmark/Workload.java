@@ -0,0 +1,156 @@
+package de.westnordost.countryboundaries.benchmark;
+
+import de.westnordost.countryboundaries.CountryBoundaries;
+
+import java.io.IOException;
+import java.util.Random;
+
+/** Ways to choose the positions that are looked up in the benchmarks. For the same seed and
+ *  data, the same positions are generated. */
+public enum Workload {
+
+    /** Uniformly distributed all over the world, i.e. mostly in the oceans */
+    UNIFORM {
+        @Override
+        void generate(String raster, CountryBoundaries boundaries, Random random,
+                double[] lons, double[] lats) {
+            for (int i = 0; i < lons.length; i++) {
+                lons[i] = randomLongitude(random);
+                lats[i] = randomLatitude(random);
+            }
+        }
+    },
+
+    /** Clustered around the biggest cities of the world, weighted by their population */
+    POPULATION {
+        @Override
+        void generate(String raster, CountryBoundaries boundaries, Random random,
+                double[] lons, double[] lats) {
+            double totalPopulation = 0;
+            for (int c = 0; c < CITIES.length; c += 3) {
+                totalPopulation += CITIES[c + 2];
+            }
+            for (int i = 0; i < lons.length; i++) {
+                double r = random.nextDouble() * totalPopulation;
+                int c = 0;
+                while (c < CITIES.length - 3 && r >= CITIES[c + 2]) {
+                    r -= CITIES[c + 2];
+                    c += 3;
+                }
+                lons[i] = normalizeLongitude(CITIES[c] + random.nextGaussian() * CITY_RADIUS);
+                lats[i] = clampLatitude(CITIES[c + 1] + random.nextGaussian() * CITY_RADIUS);
+            }
+        }
+    },
+
+    /** Close to the borders between regions: on random edges of the borders in the data file,
+     *  jittered a little. The edges are read from the file directly, see {@link BorderEdges} */
+    BORDER {
+        @Override
+        void generate(String raster, CountryBoundaries boundaries, Random random,
+                double[] lons, double[] lats) throws IOException {
+            double[] edges = BorderEdges.read(Datasets.read(raster));
+            int edgeCount = edges.length / 4;
+            for (int i = 0; i < lons.length; i++) {
+                int e = random.nextInt(edgeCount) * 4;
+                double t = random.nextDouble();
+                double lon = edges[e] + t * (edges[e + 2] - edges[e]);
+                double lat = edges[e + 1] + t * (edges[e + 3] - edges[e + 1]);
+                lons[i] = normalizeLongitude(lon + random.nextGaussian() * BORDER_JITTER);
+                lats[i] = clampLatitude(lat + random.nextGaussian() * BORDER_JITTER);
+            }
+        }
+    },
+
+    /** Uniformly distributed over the positions that are not in any region */
+    OCEAN {
+        @Override
+        void generate(String raster, CountryBoundaries boundaries, Random random,
+                double[] lons, double[] lats) {
+            int i = 0;
+            while (i < lons.length) {
+                double lon = randomLongitude(random);
+                double lat = randomLatitude(random);
+                if (!boundaries.getIds(lon, lat).isEmpty()) continue;
+                lons[i] = lon;
+                lats[i] = lat;
+                i++;
+            }
+        }
+    };
+
+    /** Fill the given arrays with longitudes and latitudes, for the given boundaries loaded from
+     *  the data file of the given raster size, see {@link Datasets} */
+    abstract void generate(String raster, CountryBoundaries boundaries, Random random,
+            double[] lons, double[] lats) throws IOException;
+
+    /** standard deviation of the distance of positions from the city center, in degrees */
+    private static final double CITY_RADIUS = 0.2;
+
+    /** standard deviation of the distance of positions from the border, in degrees (~10 m) */
+    private static final double BORDER_JITTER = 0.0001;
+
+    /** Longitude, latitude and approximate population in millions of metropolitan areas */
+    private static final double[] CITIES = {
+        139.69, 35.69, 37.0, // Tokyo
+        77.21, 28.61, 32.0, // Delhi
+        121.47, 31.23, 29.0, // Shanghai
+        90.41, 23.81, 23.0, // Dhaka
+        -46.63, -23.55, 22.0, // São Paulo
+        -99.13, 19.43, 22.0, // Mexico City
+        31.24, 30.04, 22.0, // Cairo
+        116.41, 39.90, 21.0, // Beijing
+        72.88, 19.08, 21.0, // Mumbai
+        135.50, 34.69, 19.0, // Osaka
+        106.55, 29.56, 17.0, // Chongqing
+        67.01, 24.86, 17.0, // Karachi
+        15.27, -4.44, 17.0, // Kinshasa
+        3.38, 6.52, 16.0, // Lagos
+        28.98, 41.01, 16.0, // Istanbul
+        -58.38, -34.60, 15.0, // Buenos Aires
+        88.36, 22.57, 15.0, // Kolkata
+        120.98, 14.60, 14.0, // Manila
+        113.26, 23.13, 14.0, // Guangzhou
+        74.36, 31.55, 14.0, // Lahore
+        77.59, 12.97, 13.0, // Bangalore
+        -43.17, -22.91, 13.0, // Rio de Janeiro
+        -118.24, 34.05, 12.5, // Los Angeles
+        37.62, 55.76, 12.6, // Moscow
+        -74.07, 4.71, 11.5, // Bogotá
+        106.85, -6.21, 11.0, // Jakarta
+        -77.04, -12.05, 11.0, // Lima
+        2.35, 48.86, 11.0, // Paris
+        100.50, 13.76, 11.0, // Bangkok
+        126.98, 37.57, 10.0, // Seoul
+        -0.13, 51.51, 9.6, // London
+        51.39, 35.69, 9.5, // Tehran
+        106.63, 10.82, 9.3, // Ho Chi Minh City
+        -74.01, 40.71, 18.8, // New York
+        -87.63, 41.88, 8.9, // Chicago
+        46.68, 24.71, 7.7, // Riyadh
+        -3.70, 40.42, 6.7, // Madrid
+        -79.38, 43.65, 6.4, // Toronto
+        28.05, -26.20, 6.0, // Johannesburg
+        151.21, -33.87, 5.3, // Sydney
+        36.82, -1.29, 5.1, // Nairobi
+        13.40, 52.52, 3.7, // Berlin
+    };
+
+    private static double randomLongitude(Random random) {
+        return random.nextDouble() * 360.0 - 180.0;
+    }
+
+    private static double randomLatitude(Random random) {
+        return random.nextDouble() * 180.0 - 90.0;
+    }
+
+    private static double normalizeLongitude(double longitude) {
+        if (longitude < -180.0) return longitude + 360.0;
+        if (longitude >= 180.0) return longitude - 360.0;
+        return longitude;
+    }
+
+    private static double clampLatitude(double latitude) {
+        return Math.max(-90.0, Math.min(90.0, latitude));
+    }
+}
@@ -1,18 +1,24 @@
 package de.westnordost.countryboundaries;
 
 import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.GeometryCollection;
 import com.vividsolutions.jts.geom.GeometryFactory;
-import com.vividsolutions.jts.geom.IntersectionMatrix;
 import com.vividsolutions.jts.geom.LineString;
 import com.vividsolutions.jts.geom.MultiPolygon;
 import com.vividsolutions.jts.geom.Polygon;
 import com.vividsolutions.jts.geom.Polygonal;
 import com.vividsolutions.jts.geom.PrecisionModel;
+import com.vividsolutions.jts.geom.prep.PreparedGeometry;
+import com.vividsolutions.jts.geom.prep.PreparedGeometryFactory;
 import com.vividsolutions.jts.index.strtree.STRtree;
 
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 public class CountryBoundariesGenerator
 {
@@ -20,6 +26,7 @@ public class CountryBoundariesGenerator
 	private final GeometryFactory factory = new GeometryFactory(new PrecisionModel(), WGS84);
 
 	private ProgressListener listener;
+	private int maxVerticesPerCell = 0;
 
 	public interface ProgressListener
 	{
@@ -31,64 +38,315 @@ public class CountryBoundariesGenerator
 		this.listener = listener;
 	}
 
+	/** Cells whose intersecting areas have more than the given number of vertices in total are
+	 *  split into quadrants, recursively, up to a depth of {@value #MAX_SPLIT_DEPTH}. So, lookups
+	 *  in cells with complex borders stay fast. 0 (the default) for not splitting any cells. */
+	public void setMaxVerticesPerCell(int maxVerticesPerCell)
+	{
+		this.maxVerticesPerCell = maxVerticesPerCell;
+	}
+
 	public CountryBoundaries generate(int width, int height, List<Geometry> boundaries)
 	{
 		Map<String, Double> geometrySizes = calculateGeometryAreas(boundaries);
 
 		STRtree index = buildIndex(boundaries);
 
-		CountryBoundariesCell[] raster = new CountryBoundariesCell[width * height];
+		Rasterizer rasterizer = new Rasterizer(index, width, height);
+		int tileCount = rasterizer.getTileCount();
+		for (int tile = 0; tile < tileCount; ++tile)
+		{
+			rasterizer.generateTile(tile);
+
+			if(listener != null) listener.onProgress((float)(tile+1)/tileCount);
+		}
+
+		return new CountryBoundaries(Arrays.asList(rasterizer.cells), width, geometrySizes);
+	}
+
+	/** Same as {@link #generate(int, int, List)}, only that the tiles of the raster are generated
+	 *  in parallel on the given executor, e.g. a {@link java.util.concurrent.ForkJoinPool}. The
+	 *  result is exactly the same. The progress listener is called whenever a tile is done, but
+	 *  never concurrently. */
+	public CountryBoundaries generate(
+			int width, int height, List<Geometry> boundaries, ExecutorService executor)
+			throws InterruptedException
+	{
+		Map<String, Double> geometrySizes = calculateGeometryAreas(boundaries);
 
-		for (int y = 0; y < height; ++y)
+		STRtree index = buildIndex(boundaries);
+		// the tree is built lazily on first query otherwise, which is not thread-safe. The
+		// prepared geometries in it build their internal indexes in a synchronized manner
+		index.build();
+
+		final Rasterizer rasterizer = new Rasterizer(index, width, height);
+		final int tileCount = rasterizer.getTileCount();
+		final int[] tilesDone = new int[1];
+
+		List<Callable<Void>> tasks = new ArrayList<>(tileCount);
+		for (int tile = 0; tile < tileCount; ++tile)
 		{
-			for (int x = 0; x < width; ++x)
+			final int t = tile;
+			tasks.add(new Callable<Void>()
 			{
-				double lonMin = -180.0 + 360.0 * x / width;
-				double latMax = +90.0 - 180.0 * y / height;
-				double lonMax = -180.0 + 360.0 * (x + 1) / width;
-				double latMin = +90.0 - 180.0 * (y + 1) / height;
-
-				raster[x + y * width] = createCell(index, lonMin, latMin, lonMax, latMax);
+				@Override public Void call()
+				{
+					rasterizer.generateTile(t);
+					synchronized (tilesDone)
+					{
+						tilesDone[0]++;
+						if(listener != null) listener.onProgress((float)tilesDone[0]/tileCount);
+					}
+					return null;
+				}
+			});
+		}
 
-				if(listener != null) listener.onProgress((float)(y*width+x)/(width*height));
+		for (Future<Void> future : executor.invokeAll(tasks))
+		{
+			try
+			{
+				future.get();
+			}
+			catch (ExecutionException e)
+			{
+				Throwable cause = e.getCause();
+				if(cause instanceof RuntimeException) throw (RuntimeException) cause;
+				if(cause instanceof Error) throw (Error) cause;
+				throw new RuntimeException(cause);
 			}
 		}
-		if(listener != null) listener.onProgress(1);
 
-		return new CountryBoundaries(Arrays.asList(raster), width, geometrySizes);
+		return new CountryBoundaries(Arrays.asList(rasterizer.cells), width, geometrySizes);
 	}
 
-	private CountryBoundariesCell createCell(
-			STRtree index, double lonMin, double latMin, double lonMax, double latMax)
+	/** The raster is generated in square tiles of this many cells in width and height */
+	private static final int TILE_SIZE = 32;
+
+	/** How often a cell may be split into quadrants at most. So, a cell consists of at most 256
+	 *  leaves, each 1/16 of the cell in width and height. Splitting any further would not make
+	 *  lookups much faster, but could blow up the size of the data for cells with very long
+	 *  borders, e.g. along fjords */
+	private static final int MAX_SPLIT_DEPTH = 4;
+
+	/** Generates the cells of a raster. Each tile is clipped from the original geometries once
+	 *  and then recursively split into quadrants, each clipped from the geometries clipped to
+	 *  its parent. So, huge geometries are not clipped again for every single cell. */
+	private class Rasterizer
 	{
-		Polygon bounds = createBounds(lonMin, latMin, lonMax, latMax);
+		final STRtree index;
+		final int width;
+		final int height;
+		final CountryBoundariesCell[] cells;
 
-		List<String> containingIds = new ArrayList<>();
-		List<CountryAreas> intersectingAreas = new ArrayList<>();
+		Rasterizer(STRtree index, int width, int height)
+		{
+			this.index = index;
+			this.width = width;
+			this.height = height;
+			this.cells = new CountryBoundariesCell[width * height];
+		}
 
-		List<Geometry> geometries = index.query(bounds.getEnvelopeInternal());
-		for (Geometry g : geometries)
+		int getTileCount()
 		{
-			String areaId = getAreaId(g);
-			if(areaId == null) continue;
+			return tilesX() * ((height + TILE_SIZE - 1) / TILE_SIZE);
+		}
+
+		void generateTile(int tile)
+		{
+			int x0 = (tile % tilesX()) * TILE_SIZE;
+			int y0 = (tile / tilesX()) * TILE_SIZE;
+			int x1 = Math.min(x0 + TILE_SIZE, width);
+			int y1 = Math.min(y0 + TILE_SIZE, height);
+
+			List<Part> parts = new ArrayList<>();
+			Envelope envelope = createCellBounds(x0, y0, x1, y1).getEnvelopeInternal();
+			List<PreparedGeometry> geometries = index.query(envelope);
+			for (PreparedGeometry pg : geometries)
+			{
+				Geometry g = pg.getGeometry();
+				parts.add(new Part(getAreaId(g), g, pg));
+			}
+			generate(x0, y0, x1, y1, parts, Collections.<String>emptyList());
+		}
+
+		private int tilesX()
+		{
+			return (width + TILE_SIZE - 1) / TILE_SIZE;
+		}
+
+		/** Generate the cells from x0,y0 (inclusive) to x1,y1 (exclusive) from the given parts,
+		 *  which may extend beyond these bounds, and the ids of the areas known to cover them */
+		private void generate(
+				int x0, int y0, int x1, int y1, List<Part> parts, List<String> containingIds)
+		{
+			Polygon bounds = createCellBounds(x0, y0, x1, y1);
+
+			List<String> ids = new ArrayList<>(containingIds);
+			List<Part> clippedParts = new ArrayList<>();
+			clip(parts, bounds, ids, clippedParts);
+
+			if(x1 - x0 == 1 && y1 - y0 == 1)
+			{
+				cells[x0 + y0 * width] = createCell(x0, y0, ids, clippedParts);
+			}
+			else if(clippedParts.isEmpty())
+			{
+				for (int y = y0; y < y1; ++y)
+				{
+					for (int x = x0; x < x1; ++x)
+					{
+						cells[x + y * width] = new CountryBoundariesCell(
+								ids, Collections.<CountryAreas>emptyList());
+					}
+				}
+			}
+			else
+			{
+				int xm = (x0 + x1) / 2;
+				int ym = (y0 + y1) / 2;
+				if(xm > x0 && ym > y0) generate(x0, y0, xm, ym, clippedParts, ids);
+				if(ym > y0) generate(xm, y0, x1, ym, clippedParts, ids);
+				if(xm > x0) generate(x0, ym, xm, y1, clippedParts, ids);
+				generate(xm, ym, x1, y1, clippedParts, ids);
+			}
+		}
+
+		/** Add the ids of the parts that cover the given bounds to ids and the parts that
+		 *  intersect with it, clipped to the bounds, to clippedParts */
+		private void clip(
+				List<Part> parts, Polygon bounds, List<String> ids, List<Part> clippedParts)
+		{
+			Envelope envelope = bounds.getEnvelopeInternal();
+			for (Part part : parts)
+			{
+				if(!part.geometry.getEnvelopeInternal().intersects(envelope)) continue;
+
+				if(part.covers(bounds))
+				{
+					ids.add(part.id);
+				}
+				else if(part.intersects(bounds))
+				{
+					List<Geometry> polygons = new ArrayList<>();
+					collectPolygons(part.geometry.intersection(bounds), polygons);
+					if(!polygons.isEmpty())
+					{
+						clippedParts.add(new Part(part.id, factory.buildGeometry(polygons), null));
+					}
+				}
+			}
+		}
+
+		/** Create the cell at x,y from the given parts, which are already clipped to it */
+		private CountryBoundariesCell createCell(
+				int x, int y, List<String> containingIds, List<Part> parts)
+		{
+			double lonMin = -180.0 + 360.0 * x / width;
+			double latMax = +90.0 - 180.0 * y / height;
+			double lonMax = -180.0 + 360.0 * (x + 1) / width;
+			double latMin = +90.0 - 180.0 * (y + 1) / height;
+
+			return createCell(lonMin, latMin, lonMax, latMax, containingIds, parts, 0);
+		}
+
+		/** Create the cell with the given bounds from the given parts, which are already clipped
+		 *  to it. If it has too many vertices, it is split into quadrants recursively. */
+		private CountryBoundariesCell createCell(
+				double lonMin, double latMin, double lonMax, double latMax,
+				List<String> containingIds, List<Part> parts, int depth)
+		{
+			int vertexCount = 0;
+			for (Part part : parts)
+			{
+				vertexCount += part.geometry.getNumPoints();
+			}
 
-			IntersectionMatrix im = g.relate(bounds);
-			if(im.isCovers())
+			if(maxVerticesPerCell <= 0 || vertexCount <= maxVerticesPerCell || depth >= MAX_SPLIT_DEPTH)
 			{
-				containingIds.add(areaId);
+				List<CountryAreas> intersectingAreas = new ArrayList<>();
+				for (Part part : parts)
+				{
+					List<Geometry> polygons = new ArrayList<>();
+					collectPolygons(part.geometry, polygons);
+					for (Geometry poly : polygons) {
+						// a normalized copy, so that the geometries of the parts are not modified
+						intersectingAreas.add(createCountryAreas(part.id, poly.norm(), lonMin, latMin, lonMax, latMax));
+					}
+				}
+				return new CountryBoundariesCell(containingIds, intersectingAreas);
+			}
+
+			// each part is clipped to all four quadrants, so it pays off to prepare it once
+			List<Part> preparedParts = new ArrayList<>(parts.size());
+			for (Part part : parts)
+			{
+				preparedParts.add(part.prepared != null
+						? part
+						: new Part(part.id, part.geometry, PreparedGeometryFactory.prepare(part.geometry)));
 			}
-			else if(!im.isDisjoint())
+
+			double lonMid = (lonMin + lonMax) / 2;
+			double latMid = (latMin + latMax) / 2;
+			List<CountryBoundariesCell> children = new ArrayList<>(4);
+			// in the order south-west, south-east, north-west, north-east
+			for (int qy = 0; qy < 2; ++qy)
 			{
-				Geometry intersection = g.intersection(bounds);
-				List<Geometry> polygons = new ArrayList<>();
-				collectPolygons(intersection, polygons);
-				for (Geometry poly : polygons) {
-					poly.normalize();
-					intersectingAreas.add(createCountryAreas(areaId, poly, lonMin, latMin, lonMax, latMax));
+				for (int qx = 0; qx < 2; ++qx)
+				{
+					double qLonMin = qx == 0 ? lonMin : lonMid;
+					double qLonMax = qx == 0 ? lonMid : lonMax;
+					double qLatMin = qy == 0 ? latMin : latMid;
+					double qLatMax = qy == 0 ? latMid : latMax;
+
+					List<String> ids = new ArrayList<>(containingIds);
+					List<Part> clippedParts = new ArrayList<>();
+					clip(preparedParts, createBounds(qLonMin, qLatMin, qLonMax, qLatMax), ids, clippedParts);
+					children.add(createCell(qLonMin, qLatMin, qLonMax, qLatMax, ids, clippedParts, depth + 1));
 				}
 			}
+			return new CountryBoundariesCell(
+					Collections.<String>emptyList(), Collections.<CountryAreas>emptyList(), children);
+		}
+
+		private Polygon createCellBounds(int x0, int y0, int x1, int y1)
+		{
+			return createBounds(
+					-180.0 + 360.0 * x0 / width,
+					+90.0 - 180.0 * y1 / height,
+					-180.0 + 360.0 * x1 / width,
+					+90.0 - 180.0 * y0 / height
+			);
+		}
+	}
+
+	/** The geometry of an area with the given id, or a part of it */
+	private static class Part
+	{
+		final String id;
+		final Geometry geometry;
+		/** the prepared geometry, if the geometry is the original one or is clipped to several
+		 *  quadrants */
+		final PreparedGeometry prepared;
+
+		Part(String id, Geometry geometry, PreparedGeometry prepared)
+		{
+			this.id = id;
+			this.geometry = geometry;
+			this.prepared = prepared;
+		}
+
+		boolean covers(Geometry g)
+		{
+			// the prepared geometry indexes its edges once on first use, so this is much
+			// cheaper than computing the full intersection matrix for the original geometry
+			return prepared != null ? prepared.covers(g) : geometry.covers(g);
+		}
+
+		boolean intersects(Geometry g)
+		{
+			return prepared != null ? prepared.intersects(g) : geometry.intersects(g);
 		}
-		return new CountryBoundariesCell(containingIds, intersectingAreas);
 	}
 
 	// Helper function to recursively collect all Polygonal geometries
@@ -150,6 +408,7 @@ public class CountryBoundariesGenerator
 		return Arrays.asList(result);
 	}
 
+	/** Returns an index of the prepared geometries of all geometries that have an area id */
 	private STRtree buildIndex(List<Geometry> geometries)
 	{
 		STRtree index = new STRtree();
@@ -158,7 +417,7 @@ public class CountryBoundariesGenerator
 			String areaId = getAreaId(g);
 			if(areaId != null)
 			{
-				index.insert(g.getEnvelopeInternal(), g);
+				index.insert(g.getEnvelopeInternal(), PreparedGeometryFactory.prepare(g));
 			}
 		}
 		return index;
@@ -17,13 +17,14 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
 
 public class Main
 {
 	public static void main(String[] args) throws Exception {
 
-		if(args.length != 3 && args.length != 2) {
-			System.err.println("Missing parameters. F.e. 'boundaries.osm 360 180' or 'boundaries.osm boundaries.json' ");
+		if(args.length < 2 || args.length > 4) {
+			System.err.println("Missing parameters. F.e. 'boundaries.osm 360 180', 'boundaries.osm 360 180 1000' (split cells with more than 1000 vertices) or 'boundaries.osm boundaries.json' ");
 			return;
 		}
 		String filename = args[0];
@@ -100,7 +101,17 @@ public class Main
 
 		int width = Integer.parseInt(args[1]);
 		int height = Integer.parseInt(args[2]);
-		CountryBoundaries boundaries = generator.generate(width, height, geometryList);
+		if(args.length == 4) generator.setMaxVerticesPerCell(Integer.parseInt(args[3]));
+		ForkJoinPool pool = new ForkJoinPool();
+		CountryBoundaries boundaries;
+		try
+		{
+			boundaries = generator.generate(width, height, geometryList, pool);
+		}
+		finally
+		{
+			pool.shutdown();
+		}
 		try(FileOutputStream fos = new FileOutputStream("boundaries.ser"))
 		{
 			CountryBoundariesUtils.serializeTo(fos, boundaries);
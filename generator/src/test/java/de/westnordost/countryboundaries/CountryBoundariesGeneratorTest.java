@@ -0,0 +1,287 @@
+package de.westnordost.countryboundaries;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.IntersectionMatrix;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.geom.PrecisionModel;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class CountryBoundariesGeneratorTest
+{
+	@Test public void parallelGenerationReturnsSameResult() throws Exception
+	{
+		List<Geometry> geometries = createGeometries();
+		geometries.addAll(createGeometriesAcrossTiles());
+
+		CountryBoundariesGenerator generator = new CountryBoundariesGenerator();
+		final List<Float> progresses = new ArrayList<>();
+		generator.setProgressListener(new CountryBoundariesGenerator.ProgressListener()
+		{
+			@Override public void onProgress(float progress)
+			{
+				progresses.add(progress);
+			}
+		});
+
+		CountryBoundaries reference = generateCellByCell(70, 35, geometries);
+		CountryBoundaries sequential = generator.generate(70, 35, geometries);
+
+		progresses.clear();
+		CountryBoundaries parallel;
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try
+		{
+			parallel = generator.generate(70, 35, geometries, pool);
+		}
+		finally
+		{
+			pool.shutdown();
+		}
+
+		assertEquals(sequential, parallel);
+		assertSameIds(reference, parallel, geometries);
+
+		// 70x35 cells are generated in 3x2 tiles, the last column and row of tiles are cut off
+		assertEquals(6, progresses.size());
+		for (int i = 1; i < progresses.size(); i++)
+		{
+			assertTrue(progresses.get(i - 1) < progresses.get(i));
+		}
+		assertEquals(1f, progresses.get(progresses.size() - 1), 0f);
+
+		// also when cells are split into quadrants
+		generator.setMaxVerticesPerCell(8);
+		CountryBoundaries sequentialSplit = generator.generate(70, 35, geometries);
+		CountryBoundaries parallelSplit;
+		pool = new ForkJoinPool(4);
+		try
+		{
+			parallelSplit = generator.generate(70, 35, geometries, pool);
+		}
+		finally
+		{
+			pool.shutdown();
+		}
+
+		assertNotEquals(parallel, parallelSplit);
+		assertEquals(sequentialSplit, parallelSplit);
+		assertSameIds(reference, parallelSplit, geometries);
+	}
+
+	@Test public void splittingCellsReturnsSameIds() throws Exception
+	{
+		List<Geometry> geometries = createGeometries();
+
+		CountryBoundariesGenerator generator = new CountryBoundariesGenerator();
+		CountryBoundaries uniform = generator.generate(8, 4, geometries);
+		generator.setMaxVerticesPerCell(4);
+		CountryBoundaries split = generator.generate(8, 4, geometries);
+
+		assertNotEquals(uniform, split);
+		assertEquals(Arrays.asList("B", "A"), split.getIds(10, 5));
+		assertEquals(uniform.getIds(10, 5), split.getIds(10, 5));
+		assertEquals(uniform.getIds(-40, 10), split.getIds(-40, 10));
+		assertEquals(uniform.getIds(50, 10), split.getIds(50, 10));
+		assertEquals(uniform.getIds(100, 60), split.getIds(100, 60));
+	}
+
+	@Test public void hierarchicalClippingReturnsSameIdsAsClippingEachCell() throws Exception
+	{
+		List<Geometry> geometries = createGeometries();
+		geometries.addAll(createGeometriesAcrossTiles());
+
+		CountryBoundariesGenerator generator = new CountryBoundariesGenerator();
+		// 70x35 cells are generated in 3x2 tiles, the last column and row of tiles are cut off
+		CountryBoundaries reference = generateCellByCell(70, 35, geometries);
+		CountryBoundaries hierarchical = generator.generate(70, 35, geometries);
+
+		assertSameIds(reference, hierarchical, geometries);
+	}
+
+	/** Generate the raster like the generator originally did: Each cell is clipped from the
+	 *  original geometries separately, instead of from the geometries already clipped to the tile
+	 *  and the quadrants it is in. This is much slower, it only serves as a reference to check the
+	 *  result of the generator against. */
+	private static CountryBoundaries generateCellByCell(
+			int width, int height, List<Geometry> geometries)
+	{
+		GeometryFactory factory = new GeometryFactory(new PrecisionModel());
+		Map<String, Double> geometrySizes = new HashMap<>();
+		for (Geometry g : geometries)
+		{
+			geometrySizes.put((String) g.getUserData(), g.getArea());
+		}
+
+		List<CountryBoundariesCell> raster = new ArrayList<>(width * height);
+		for (int y = 0; y < height; ++y)
+		{
+			for (int x = 0; x < width; ++x)
+			{
+				double lonMin = -180.0 + 360.0 * x / width;
+				double latMax = +90.0 - 180.0 * y / height;
+				double lonMax = -180.0 + 360.0 * (x + 1) / width;
+				double latMin = +90.0 - 180.0 * (y + 1) / height;
+				Geometry bounds = factory.toGeometry(new Envelope(lonMin, lonMax, latMin, latMax));
+
+				List<String> containingIds = new ArrayList<>();
+				List<CountryAreas> intersectingAreas = new ArrayList<>();
+				for (Geometry g : geometries)
+				{
+					String id = (String) g.getUserData();
+					IntersectionMatrix im = g.relate(bounds);
+					if(im.isCovers())
+					{
+						containingIds.add(id);
+					}
+					else if(!im.isDisjoint())
+					{
+						Geometry intersection = g.intersection(bounds);
+						List<List<Point>> outer = new ArrayList<>();
+						List<List<Point>> inner = new ArrayList<>();
+						for (int i = 0; i < intersection.getNumGeometries(); i++)
+						{
+							Geometry part = intersection.getGeometryN(i);
+							if(!(part instanceof Polygon)) continue;
+							Polygon p = (Polygon) part;
+							outer.add(points(p.getExteriorRing(), lonMin, latMin, lonMax, latMax));
+							for (int j = 0; j < p.getNumInteriorRing(); j++)
+							{
+								inner.add(points(p.getInteriorRingN(j), lonMin, latMin, lonMax, latMax));
+							}
+						}
+						if(!outer.isEmpty()) intersectingAreas.add(new CountryAreas(id, outer, inner));
+					}
+				}
+				raster.add(new CountryBoundariesCell(containingIds, intersectingAreas));
+			}
+		}
+		return new CountryBoundaries(raster, width, geometrySizes);
+	}
+
+	/** The coordinates of the given ring relative to the given bounds, scaled to 0..0xffff. The
+	 *  last coordinate is left out, as it is the same as the first */
+	private static List<Point> points(
+			LineString ring, double lonMin, double latMin, double lonMax, double latMax)
+	{
+		Coordinate[] coords = ring.getCoordinates();
+		List<Point> result = new ArrayList<>(coords.length - 1);
+		for (int i = 0; i < coords.length - 1; i++)
+		{
+			int x = (int) ((coords[i].x - lonMin) * 0xffff / (lonMax - lonMin));
+			int y = (int) ((coords[i].y - latMin) * 0xffff / (latMax - latMin));
+			result.add(new Point(x, y));
+		}
+		return result;
+	}
+
+	/** Assert that both return the same ids on a dense sample of positions all over the world
+	 *  and that these are the ids of the given geometries that cover each position. Positions
+	 *  very close to the boundary of any geometry are left out, as the coordinates of the
+	 *  boundaries are quantized in each cell. */
+	private static void assertSameIds(
+			CountryBoundaries expected, CountryBoundaries actual, List<Geometry> geometries)
+	{
+		GeometryFactory factory = new GeometryFactory(new PrecisionModel());
+		List<Geometry> borders = new ArrayList<>();
+		for (Geometry g : geometries)
+		{
+			borders.add(g.getBoundary());
+		}
+
+		int count = 0;
+		for (double lat = -89.75; lat < 90; lat += 0.5)
+		{
+			for (double lon = -179.75; lon < 180; lon += 0.5)
+			{
+				Geometry point = factory.createPoint(new Coordinate(lon, lat));
+				boolean nearBorder = false;
+				for (Geometry border : borders)
+				{
+					if(border.isWithinDistance(point, 0.001)) nearBorder = true;
+				}
+				if(nearBorder) continue;
+
+				List<String> ids = expected.getIds(lon, lat);
+				assertEquals("at " + lon + "," + lat, ids, actual.getIds(lon, lat));
+
+				HashSet<String> coveringIds = new HashSet<>();
+				for (Geometry g : geometries)
+				{
+					if(g.covers(point)) coveringIds.add((String) g.getUserData());
+				}
+				assertEquals("at " + lon + "," + lat, coveringIds, new HashSet<>(ids));
+				count++;
+			}
+		}
+		assertTrue(count > 250000);
+	}
+
+	/** Geometries with holes and several parts that span the boundaries between the tiles of a
+	 *  70x35 raster, at the longitudes -15.43 and 149.14 and the latitude -74.57 */
+	private static List<Geometry> createGeometriesAcrossTiles()
+	{
+		GeometryFactory factory = new GeometryFactory(new PrecisionModel());
+		List<Geometry> geometries = new ArrayList<>();
+
+		Geometry c = factory.createPolygon(
+				ring(factory, p(-60,-80),p(60,-80),p(60,80),p(-60,80),p(-60,-80)),
+				new LinearRing[]{
+						ring(factory, p(-30,-20),p(10,-20),p(10,30),p(-30,30),p(-30,-20)),
+						ring(factory, p(-50,-78),p(40,-78),p(40,-70),p(-50,-70),p(-50,-78))
+				}
+		);
+		c.setUserData("C");
+		geometries.add(c);
+
+		Geometry d = factory.createMultiPolygon(new Polygon[]{
+				factory.createPolygon(
+						ring(factory, p(140,-85),p(175,-60),p(130,-50),p(140,-85)),
+						new LinearRing[]{ring(factory, p(145,-70),p(155,-65),p(145,-60),p(145,-70))}
+				),
+				factory.createPolygon(new Coordinate[]{p(-170,10),p(-150,10),p(-160,40),p(-170,10)})
+		});
+		d.setUserData("D");
+		geometries.add(d);
+
+		return geometries;
+	}
+
+	private static LinearRing ring(GeometryFactory factory, Coordinate... coordinates)
+	{
+		return factory.createLinearRing(coordinates);
+	}
+
+	private static List<Geometry> createGeometries()
+	{
+		GeometryFactory factory = new GeometryFactory(new PrecisionModel());
+		List<Geometry> geometries = new ArrayList<>();
+		Geometry a = factory.createPolygon(new Coordinate[]{p(-100,-50),p(80,-50),p(0,70),p(-100,-50)});
+		a.setUserData("A");
+		geometries.add(a);
+		Geometry b = factory.createPolygon(new Coordinate[]{p(-10,-10),p(30,-10),p(30,20),p(-10,20),p(-10,-10)});
+		b.setUserData("B");
+		geometries.add(b);
+		return geometries;
+	}
+
+	private static Coordinate p(int x, int y)
+	{
+		return new Coordinate(x, y);
+	}
+}
@@ -0,0 +1,100 @@
+package de.westnordost.countryboundaries
+
+/**
+ * A grid of [SIZE] x [SIZE] slots laid over one cell. For each of the given [areas] and each
+ * slot, it records whether the area covers the whole slot, none of it or whether the boundary of
+ * the area crosses the slot. So, for most points, whether an area covers them can be answered
+ * with one array lookup instead of iterating through the vertices of the area.
+ */
+internal class CellGrid(private val areas: List<CountryAreas>) {
+    private val slots = ByteArray(areas.size * SLOTS)
+
+    init {
+        for (i in areas.indices) {
+            fill(i)
+        }
+    }
+
+    /** Returns whether the area with the given index covers the point at [x], [y] */
+    fun covers(area: Int, x: Int, y: Int): Boolean =
+        when (slots[area * SLOTS + (y shr SHIFT) * SIZE + (x shr SHIFT)]) {
+            INSIDE -> true
+            OUTSIDE -> false
+            else -> areas[area].covers(x, y)
+        }
+
+    private fun fill(area: Int) {
+        val offset = area * SLOTS
+        val countryAreas = areas[area]
+        val points = countryAreas.points
+
+        // mark all slots crossed by any edge (rather, by the bounding box of any edge)
+        for (ring in 0 until countryAreas.ringCount) {
+            val start = countryAreas.ringOffsets[ring] * 2
+            val end = countryAreas.ringOffsets[ring + 1] * 2
+            if (start == end) continue
+            var ax = points[end - 2].toInt() and 0xffff
+            var ay = points[end - 1].toInt() and 0xffff
+            var i = start
+            while (i < end) {
+                val bx = points[i].toInt() and 0xffff
+                val by = points[i + 1].toInt() and 0xffff
+                for (sy in (minOf(ay, by) shr SHIFT)..(maxOf(ay, by) shr SHIFT)) {
+                    for (sx in (minOf(ax, bx) shr SHIFT)..(maxOf(ax, bx) shr SHIFT)) {
+                        slots[offset + sy * SIZE + sx] = CROSSING
+                    }
+                }
+                ax = bx
+                ay = by
+                i += 2
+            }
+        }
+
+        // Each slot not crossed by any edge is either completely inside or completely outside.
+        // The same applies to any contiguous region of such slots, so only one point needs to be
+        // checked per region, the rest is flood-filled
+        val queue = IntArray(SLOTS)
+        for (slot in 0 until SLOTS) {
+            if (slots[offset + slot] != UNKNOWN) continue
+
+            val x = (slot % SIZE) shl SHIFT
+            val y = (slot / SIZE) shl SHIFT
+            val state = if (countryAreas.covers(x, y)) INSIDE else OUTSIDE
+
+            slots[offset + slot] = state
+            queue[0] = slot
+            var head = 0
+            var tail = 1
+            while (head < tail) {
+                val s = queue[head++]
+                val sx = s % SIZE
+                val sy = s / SIZE
+                for (n in 0 until 4) {
+                    val neighbor = when (n) {
+                        0 -> if (sx > 0) s - 1 else -1
+                        1 -> if (sx < SIZE - 1) s + 1 else -1
+                        2 -> if (sy > 0) s - SIZE else -1
+                        else -> if (sy < SIZE - 1) s + SIZE else -1
+                    }
+                    if (neighbor != -1 && slots[offset + neighbor] == UNKNOWN) {
+                        slots[offset + neighbor] = state
+                        queue[tail++] = neighbor
+                    }
+                }
+            }
+        }
+    }
+
+    private companion object {
+        /** log2 of how many local coordinate units one slot is wide and high */
+        const val SHIFT = 13
+        /** number of slots in each dimension */
+        const val SIZE = 0x10000 shr SHIFT
+        const val SLOTS = SIZE * SIZE
+
+        const val UNKNOWN: Byte = 0
+        const val OUTSIDE: Byte = 1
+        const val INSIDE: Byte = 2
+        const val CROSSING: Byte = 3
+    }
+}
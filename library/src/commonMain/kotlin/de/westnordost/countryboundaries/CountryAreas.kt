@@ -1,14 +1,140 @@
 package de.westnordost.countryboundaries
 
-/** Represents the areas that one country with the given id covers.  */
-internal data class CountryAreas(
+import kotlin.math.sign
+
+/**
+ * Represents the areas that one country with the given id covers.
+ *
+ * To save memory and to have the data close together, the points of all rings are stored in one
+ * array: [points] contains the x and y coordinates of all points, alternating, and the ring with
+ * the index i consists of the points from [ringOffsets]`[i]` (inclusive) to
+ * [ringOffsets]`[i+1]` (exclusive). The first [outerCount] rings are the outer rings, the rest
+ * are the inner rings.
+ */
+internal class CountryAreas(
     internal val id: String,
-    internal val outer: List<List<Point>>,
-    internal val inner: List<List<Point>>
+    internal val points: ShortArray,
+    internal val ringOffsets: IntArray,
+    internal val outerCount: Int,
 ) {
+    constructor(id: String, outer: List<List<Point>>, inner: List<List<Point>>) :
+        this(id, packPoints(outer + inner), ringOffsetsOf(outer + inner), outer.size)
+
+    /** Number of rings, outer and inner */
+    val ringCount: Int get() = ringOffsets.size - 1
+
+    /** Bounding box of each ring: min x, min y, max x, max y */
+    private val ringBounds = IntArray(ringCount * 4)
+
+    /** Bounding box of all outer rings: min x, min y, max x, max y */
+    private val bounds = intArrayOf(Int.MAX_VALUE, Int.MAX_VALUE, Int.MIN_VALUE, Int.MIN_VALUE)
+
+    init {
+        for (ring in 0 until ringCount) {
+            var ringMinX = Int.MAX_VALUE
+            var ringMinY = Int.MAX_VALUE
+            var ringMaxX = Int.MIN_VALUE
+            var ringMaxY = Int.MIN_VALUE
+            for (i in ringOffsets[ring] * 2 until ringOffsets[ring + 1] * 2 step 2) {
+                val x = points[i].toInt() and 0xffff
+                val y = points[i + 1].toInt() and 0xffff
+                if (x < ringMinX) ringMinX = x
+                if (y < ringMinY) ringMinY = y
+                if (x > ringMaxX) ringMaxX = x
+                if (y > ringMaxY) ringMaxY = y
+            }
+            ringBounds[ring * 4] = ringMinX
+            ringBounds[ring * 4 + 1] = ringMinY
+            ringBounds[ring * 4 + 2] = ringMaxX
+            ringBounds[ring * 4 + 3] = ringMaxY
+            if (ring < outerCount) {
+                if (ringMinX < bounds[0]) bounds[0] = ringMinX
+                if (ringMinY < bounds[1]) bounds[1] = ringMinY
+                if (ringMaxX > bounds[2]) bounds[2] = ringMaxX
+                if (ringMaxY > bounds[3]) bounds[3] = ringMaxY
+            }
+        }
+    }
+
+    /** For rings with many vertices, their edges in horizontal slabs. See [LazyRaster] */
+    private val edgeSlabs = arrayOfNulls<EdgeSlabs>(ringCount)
+
     /** Returns whether it contains the given point  */
     fun covers(point: Point): Boolean =
-        outer.count { point.isInPolygon(it) } - inner.count { point.isInPolygon(it) } > 0
+        covers(point.x.toInt(), point.y.toInt())
+
+    /** Returns whether it contains the point at the given [x], [y] coordinates  */
+    fun covers(x: Int, y: Int): Boolean {
+        if (!isInBounds(x, y, bounds, 0)) return false
+        var count = 0
+        for (ring in 0 until outerCount) {
+            if (isInRing(x, y, ring)) ++count
+        }
+        for (ring in outerCount until ringCount) {
+            if (isInRing(x, y, ring)) --count
+        }
+        return count > 0
+    }
+
+    /**
+     * Returns whether any part of it is within the rectangle from [minX], [minY] to [maxX], [maxY]
+     * (inclusive)
+     */
+    fun intersects(minX: Int, minY: Int, maxX: Int, maxY: Int): Boolean {
+        if (!intersectsBounds(minX, minY, maxX, maxY, bounds, 0)) return false
+        for (ring in 0 until ringCount) {
+            if (isRingCrossing(minX, minY, maxX, maxY, ring)) return true
+        }
+        // no ring crosses the rectangle, so it is either completely inside or completely outside
+        return covers(minX, minY)
+    }
+
+    /** Return whether any edge of the ring with the given index crosses the given rectangle */
+    private fun isRingCrossing(minX: Int, minY: Int, maxX: Int, maxY: Int, ring: Int): Boolean {
+        if (!intersectsBounds(minX, minY, maxX, maxY, ringBounds, ring * 4)) return false
+        val start = ringOffsets[ring] * 2
+        val end = ringOffsets[ring + 1] * 2
+        if (start == end) return false
+        var ax = points[end - 2].toInt() and 0xffff
+        var ay = points[end - 1].toInt() and 0xffff
+        var i = start
+        while (i < end) {
+            val bx = points[i].toInt() and 0xffff
+            val by = points[i + 1].toInt() and 0xffff
+            if (isLineCrossing(minX, minY, maxX, maxY, ax, ay, bx, by)) return true
+            ax = bx
+            ay = by
+            i += 2
+        }
+        return false
+    }
+
+    /**
+     * Return whether the line from [ax], [ay] to [bx], [by] crosses or touches the given
+     * rectangle: Their bounding boxes overlap and not all corners of the rectangle are on the
+     * same side of the line.
+     */
+    private fun isLineCrossing(
+        minX: Int, minY: Int, maxX: Int, maxY: Int, ax: Int, ay: Int, bx: Int, by: Int
+    ): Boolean {
+        if (minOf(ax, bx) > maxX || maxOf(ax, bx) < minX) return false
+        if (minOf(ay, by) > maxY || maxOf(ay, by) < minY) return false
+        val side = isLeftOf(minX, minY, ax, ay, bx, by).sign
+        if (side == 0) return true
+        return isLeftOf(maxX, minY, ax, ay, bx, by).sign != side ||
+            isLeftOf(minX, maxY, ax, ay, bx, by).sign != side ||
+            isLeftOf(maxX, maxY, ax, ay, bx, by).sign != side
+    }
+
+    /**
+     * Return whether the rectangle from [minX], [minY] to [maxX], [maxY] intersects with the
+     * bounding box stored in [bounds] at the given [offset] as min x, min y, max x, max y
+     */
+    private fun intersectsBounds(
+        minX: Int, minY: Int, maxX: Int, maxY: Int, bounds: IntArray, offset: Int
+    ): Boolean =
+        maxX >= bounds[offset] && maxY >= bounds[offset + 1] &&
+        minX <= bounds[offset + 2] && minY <= bounds[offset + 3]
 
     // modified from:
     // Copyright 2000 softSurfer, 2012 Dan Sunday
@@ -19,28 +145,187 @@ internal data class CountryAreas(
     // Users of this code must verify correctness for their application.
     // http://geomalgorithms.com/a03-_inclusion.html
 
-    /** Return whether this is in [polygon] */
-    private fun Point.isInPolygon(polygon: List<Point>): Boolean {
+    /** Return whether the point at [x], [y] is in the ring with the given index */
+    private fun isInRing(x: Int, y: Int, ring: Int): Boolean {
+        if (!isInBounds(x, y, ringBounds, ring * 4)) return false
+        val start = ringOffsets[ring] * 2
+        val end = ringOffsets[ring + 1] * 2
+        if (start == end) return false
+        if (end - start >= MIN_SLAB_EDGES * 2) return isInRingBySlabs(x, y, ring)
         var wn = 0
-        if (polygon.isEmpty()) return false
-        var a = polygon[polygon.size - 1]
-        for (b in polygon) {
-            if (a.y <= y) {
-                if (b.y > y && isLeftOf(a, b) > 0) {
-                    ++wn
-                }
-            } else if (b.y <= y && isLeftOf(a, b) < 0) {
-                --wn
-            }
-            a = b
+        var ax = points[end - 2].toInt() and 0xffff
+        var ay = points[end - 1].toInt() and 0xffff
+        var i = start
+        while (i < end) {
+            val bx = points[i].toInt() and 0xffff
+            val by = points[i + 1].toInt() and 0xffff
+            wn += windingOf(x, y, ax, ay, bx, by)
+            ax = bx
+            ay = by
+            i += 2
         }
         return wn != 0
     }
 
-    /** Return whether this is left of line spanned by [a] and [b] */
-    private fun Point.isLeftOf(a: Point, b: Point): Long =
+    /** Same as [isInRing], only that just the edges in the slab of [y] are checked */
+    private fun isInRingBySlabs(x: Int, y: Int, ring: Int): Boolean {
+        val slabs = edgeSlabs[ring] ?: createEdgeSlabs(ring).also { edgeSlabs[ring] = it }
+        val start = ringOffsets[ring] * 2
+        val end = ringOffsets[ring + 1] * 2
+        val slab = (y - ringBounds[ring * 4 + 1]) shr slabs.shift
+        var wn = 0
+        for (k in slabs.offsets[slab] until slabs.offsets[slab + 1]) {
+            val b = slabs.edges[k]
+            val a = if (b == start) end - 2 else b - 2
+            wn += windingOf(
+                x, y,
+                points[a].toInt() and 0xffff, points[a + 1].toInt() and 0xffff,
+                points[b].toInt() and 0xffff, points[b + 1].toInt() and 0xffff
+            )
+        }
+        return wn != 0
+    }
+
+    /**
+     * Return by how much the edge from [ax], [ay] to [bx], [by] changes the winding number of
+     * the point at [x], [y]: 1 if it crosses the horizontal line through the point upwards right
+     * of the point, -1 if it crosses downwards right of the point, 0 otherwise
+     */
+    private fun windingOf(x: Int, y: Int, ax: Int, ay: Int, bx: Int, by: Int): Int =
+        if (ay <= y) {
+            if (by > y && isLeftOf(x, y, ax, ay, bx, by) > 0) 1 else 0
+        } else {
+            if (by <= y && isLeftOf(x, y, ax, ay, bx, by) < 0) -1 else 0
+        }
+
+    private fun createEdgeSlabs(ring: Int): EdgeSlabs {
+        val start = ringOffsets[ring] * 2
+        val end = ringOffsets[ring + 1] * 2
+        val minY = ringBounds[ring * 4 + 1]
+        val height = ringBounds[ring * 4 + 3] - minY
+        val edgeCount = (end - start) / 2
+
+        var shift = 0
+        while ((height shr shift) + 1 > edgeCount / EDGES_PER_SLAB) shift++
+        val slabCount = (height shr shift) + 1
+
+        // first count the edges in each slab, then put them in place. Each edge is identified by
+        // the index of its end point, its start point is the point before
+        val offsets = IntArray(slabCount + 1)
+        forEachEdgeSlab(start, end, minY, shift) { _, slab -> offsets[slab + 1]++ }
+        for (slab in 0 until slabCount) offsets[slab + 1] += offsets[slab]
+        val edges = IntArray(offsets[slabCount])
+        val sizes = IntArray(slabCount)
+        forEachEdgeSlab(start, end, minY, shift) { b, slab ->
+            edges[offsets[slab] + sizes[slab]++] = b
+        }
+        return EdgeSlabs(shift, offsets, edges)
+    }
+
+    /**
+     * Call [block] for each edge of the points from [start] to [end] (exclusive) and each slab it
+     * spans vertically
+     */
+    private inline fun forEachEdgeSlab(
+        start: Int, end: Int, minY: Int, shift: Int, block: (b: Int, slab: Int) -> Unit
+    ) {
+        var ay = points[end - 1].toInt() and 0xffff
+        var b = start
+        while (b < end) {
+            val by = points[b + 1].toInt() and 0xffff
+            // horizontal edges never change the winding number
+            if (ay != by) {
+                val firstSlab = (minOf(ay, by) - minY) shr shift
+                val lastSlab = (maxOf(ay, by) - minY) shr shift
+                for (slab in firstSlab..lastSlab) block(b, slab)
+            }
+            ay = by
+            b += 2
+        }
+    }
+
+    /**
+     * Return whether the point at [x], [y] is within the bounding box stored in [bounds] at the
+     * given [offset] as min x, min y, max x, max y. Consistent with the point in polygon check,
+     * points on the left or lower edge are within and points on the right or upper edge are not,
+     * so any point that is not within the bounding box of a ring can't be in that ring.
+     */
+    private fun isInBounds(x: Int, y: Int, bounds: IntArray, offset: Int): Boolean =
+        x >= bounds[offset] && y >= bounds[offset + 1] &&
+        x < bounds[offset + 2] && y < bounds[offset + 3]
+
+    /** Return whether the point at [x], [y] is left of line spanned by [ax], [ay] and [bx], [by] */
+    private fun isLeftOf(x: Int, y: Int, ax: Int, ay: Int, bx: Int, by: Int): Long =
         // need to convert to long to avoid integer overflow
-        (b.x.toLong() - a.x.toInt()) * (y.toLong() - a.y.toInt()) -
-        (x.toLong() - a.x.toInt()) * (b.y.toLong() - a.y.toInt())
+        (bx.toLong() - ax) * (y.toLong() - ay) - (x.toLong() - ax) * (by.toLong() - ay)
+
+    override fun equals(other: Any?): Boolean {
+        if (this === other) return true
+        if (other !is CountryAreas) return false
+        return id == other.id &&
+            outerCount == other.outerCount &&
+            ringOffsets.contentEquals(other.ringOffsets) &&
+            points.contentEquals(other.points)
+    }
+
+    override fun hashCode(): Int {
+        var result = id.hashCode()
+        result = 31 * result + outerCount
+        result = 31 * result + ringOffsets.contentHashCode()
+        result = 31 * result + points.contentHashCode()
+        return result
+    }
 
+    override fun toString(): String =
+        "CountryAreas(id=$id, outer=$outerCount rings, inner=${ringCount - outerCount} rings)"
+
+    /**
+     * The edges of a ring bucketed into horizontal slabs of 2^[shift] local coordinate units in
+     * height, starting at the minimum y of the ring. The edges in slab i are [edges] from
+     * [offsets]`[i]` (inclusive) to [offsets]`[i+1]` (exclusive). Each edge is given by the
+     * index of its end point in [points]. An edge is in every slab it spans vertically, so only
+     * the edges in the slab of a point can straddle it.
+     */
+    private class EdgeSlabs(val shift: Int, val offsets: IntArray, val edges: IntArray)
+
+    companion object {
+        /** Create from the given rings, each consisting of alternating x and y coordinates */
+        fun of(id: String, rings: List<ShortArray>, outerCount: Int): CountryAreas {
+            val ringOffsets = IntArray(rings.size + 1)
+            for (i in rings.indices) {
+                ringOffsets[i + 1] = ringOffsets[i] + rings[i].size / 2
+            }
+            val points = ShortArray(ringOffsets[rings.size] * 2)
+            for (i in rings.indices) {
+                rings[i].copyInto(points, ringOffsets[i] * 2)
+            }
+            return CountryAreas(id, points, ringOffsets, outerCount)
+        }
+
+        /** Rings with fewer edges than this are just scanned in the point in polygon check */
+        private const val MIN_SLAB_EDGES = 32
+
+        /** Average number of edges per slab to aim for */
+        private const val EDGES_PER_SLAB = 4
+    }
+}
+
+private fun packPoints(rings: List<List<Point>>): ShortArray {
+    val points = ShortArray(rings.sumOf { it.size } * 2)
+    var i = 0
+    for (ring in rings) {
+        for (point in ring) {
+            points[i++] = point.x.toShort()
+            points[i++] = point.y.toShort()
+        }
+    }
+    return points
+}
+
+private fun ringOffsetsOf(rings: List<List<Point>>): IntArray {
+    val offsets = IntArray(rings.size + 1)
+    for (i in rings.indices) {
+        offsets[i + 1] = offsets[i] + rings[i].size
+    }
+    return offsets
 }
@@ -10,35 +10,132 @@ import kotlin.math.floor
  * A spatial index to look up in which country a given geo position is located fast.
  *
  * Construct with [CountryBoundaries.Companion.deserializeFrom].
+ *
+ * If it has been constructed for only a region of the world, all queries for positions outside
+ * of that region throw an [IllegalArgumentException], see [isLoaded].
  * */
 public class CountryBoundaries internal constructor(
     internal val raster: List<CountryBoundariesCell>,
     internal val rasterWidth: Int,
-    internal val geometrySizes: Map<String, Double>
+    internal val geometrySizes: Map<String, Double>,
+    /** Dictionary of all ids in [geometrySizes] and in the [raster] */
+    internal val countryIds: CountryIds,
+    /** Maximum number of cells of the [raster] kept in [indexedRaster] */
+    cellCacheSize: Int = raster.size
 ) {
+    internal constructor(
+        raster: List<CountryBoundariesCell>,
+        rasterWidth: Int,
+        geometrySizes: Map<String, Double>
+    ) : this(
+        raster, rasterWidth, geometrySizes, CountryIds.of(geometrySizes, raster.collectIds())
+    )
+
     private val rasterHeight = raster.size / rasterWidth
 
+    /** The [raster] with the ids of the cells resolved to [countryIds] indices, see [LazyRaster] */
+    private val indexedRaster =
+        LazyRaster(raster.size, cellCacheSize) { IndexedCell(getCell(it), countryIds) }
+
+    /**
+     * For each cell of the [raster], the ids of any position in it, if they are the same for all
+     * positions in it, i.e. if it has no intersecting areas and is not split. Otherwise,
+     * [NEEDS_GEOMETRY]. See [LazyRaster]. The lists are shared by all callers, see [CountryIdList].
+     */
+    private val uniformIds = arrayOfNulls<List<String>>(raster.size)
+
+    /** Ids in blocks of cells, to look up the ids in large bounding boxes quickly */
+    private val idPyramid =
+        IdPyramid(rasterWidth, rasterHeight, countryIds.size) { x, y -> getIndexedCell(x, y) }
+
+    /**
+     * The number of different country ids in this index. Each country id is identified by an
+     * index between 0 and [idCount] (exclusive), see [idOf].
+     */
+    public val idCount: Int get() = countryIds.size
+
+    /**
+     * @param id id of a country
+     * @return the index of the country with the given id or -1 if there is no such country in
+     *         this index. Indices are assigned in the order of the size of the countries,
+     *         ascending, and in the order of their ids if they have the same size.
+     */
+    public fun idOf(id: String): Int = countryIds.indexOf(id)
+
+    /**
+     * @param index index of a country as returned by [idOf]
+     * @throws IndexOutOfBoundsException if [index] is not between 0 and [idCount] (exclusive)
+     * @return the id of the country with the given index
+     */
+    public fun nameOf(index: Int): String = countryIds[index]
+
+    /** @return a new, empty set of country indices for use with this index */
+    public fun newIdSet(): CountryIdSet = CountryIdSet(countryIds.size)
+
+    /**
+     * @param ids ids of countries. Ids that are not in this index are ignored.
+     * @return a new set of the indices of the countries with the given ids
+     */
+    public fun idSetOf(ids: Collection<String>): CountryIdSet {
+        val set = newIdSet()
+        for (id in ids) {
+            val index = countryIds.indexOf(id)
+            if (index != -1) set.add(index)
+        }
+        return set
+    }
+
     /**
      * @param longitude longitude of geo position (-180...180)
      * @param latitude latitude of geo position (-90...90)
-     * @param ids ids of the countries to look for. Note that if you have many ids, you should use
-     *            a Set to increase performance
      *
      * @throws IllegalArgumentException if any parameter is not finite (NaN or Infinite) or
      *                                  latitude is not between -90.0 and +90.0
      *
-     * @return whether the given position is in any of the countries with the given ids
+     * @return whether the data for the given position has been loaded, i.e. whether it can be
+     *         queried. This is always true unless this index has been deserialized for only a
+     *         region of the world
      */
-    public fun isInAny(longitude: Double, latitude: Double, ids: Collection<String>): Boolean {
+    public fun isLoaded(longitude: Double, latitude: Double): Boolean {
         var longitude = longitude
         validatePosition(longitude, latitude)
         longitude = normalizeLongitude(longitude)
         val cellX = longitudeToCellX(longitude)
         val cellY = latitudeToCellY(latitude)
-        val localX = longitudeToLocalX(cellX, longitude)
-        val localY = latitudeToLocalY(cellY, latitude)
+        return raster[cellY * rasterWidth + cellX] !== CountryBoundariesCell.NOT_LOADED
+    }
+
+    /**
+     * @param longitude longitude of geo position (-180...180)
+     * @param latitude latitude of geo position (-90...90)
+     * @param ids ids of the countries to look for. Note that if you have many ids, you should use
+     *            a Set to increase performance
+     *
+     * @throws IllegalArgumentException if any parameter is not finite (NaN or Infinite) or
+     *                                  latitude is not between -90.0 and +90.0
+     *
+     * @return whether the given position is in any of the countries with the given ids
+     */
+    public fun isInAny(longitude: Double, latitude: Double, ids: Collection<String>): Boolean {
+        return withCellIds(
+            longitude, latitude,
+            { cellIds -> cellIds.any { it in ids } },
+            { cell, x, y -> cell.cell.isInAny(Point(x, y), ids) }
+        )
+    }
 
-        return getCell(cellX, cellY).isInAny(Point(localX, localY), ids)
+    /**
+     * @param longitude longitude of geo position (-180...180)
+     * @param latitude latitude of geo position (-90...90)
+     * @param ids indices of the countries to look for, see [idOf]
+     *
+     * @throws IllegalArgumentException if any parameter is not finite (NaN or Infinite) or
+     *                                  latitude is not between -90.0 and +90.0
+     *
+     * @return whether the given position is in any of the countries with the given indices
+     */
+    public fun isInAny(longitude: Double, latitude: Double, ids: CountryIdSet): Boolean {
+        return withIndexedCell(longitude, latitude) { cell, x, y -> cell.isInAny(x, y, ids) }
     }
 
     /**
@@ -59,20 +156,107 @@ public class CountryBoundaries internal constructor(
      * @param longitude longitude of geo position (-180...180)
      * @param latitude latitude of geo position (-90...90)
      * @return the ids of the countries the given position is contained in, ordered by size
-     *         ascending
+     *         ascending. Countries of the same size are ordered by their id.
      */
     public fun getIds(longitude: Double, latitude: Double): List<String> {
-        var longitude = longitude
-        validatePosition(longitude, latitude)
-        longitude = normalizeLongitude(longitude)
-        val cellX = longitudeToCellX(longitude)
-        val cellY = latitudeToCellY(latitude)
-        val localX = longitudeToLocalX(cellX, longitude)
-        val localY = latitudeToLocalY(cellY, latitude)
+        return withCellIds(longitude, latitude, { it }, { cell, x, y -> cell.getIds(x, y).toIds() })
+    }
 
-        return getCell(cellX, cellY)
-            .getIds(Point(localX, localY))
-            .sortedBy { geometrySizes[it] ?: 0.0 }
+    /**
+     * @param longitude longitude of geo position (-180...180)
+     * @param latitude latitude of geo position (-90...90)
+     *
+     * @throws IllegalArgumentException if any parameter is not finite (NaN or Infinite) or
+     *                                  latitude is not between -90.0 and +90.0
+     *
+     * @return the indices of the countries the given position is contained in, ascending, which
+     *         is the same as ordered by size ascending. See [nameOf]
+     */
+    public fun getIdIndices(longitude: Double, latitude: Double): IntArray {
+        return withIndexedCell(longitude, latitude) { cell, x, y -> cell.getIds(x, y) }
+    }
+
+    /**
+     * Get the id of the smallest country the given position is contained in, i.e. the first id
+     * [getIds] would return. Unlike [getIds], this does not allocate any memory, so use this if
+     * you need to do a lot of lookups and are only interested in the most specific result.
+     *
+     * @param longitude longitude of geo position (-180...180)
+     * @param latitude latitude of geo position (-90...90)
+     *
+     * @throws IllegalArgumentException if any parameter is not finite (NaN or Infinite) or
+     *                                  latitude is not between -90.0 and +90.0
+     *
+     * @return the id of the smallest country the given position is contained in or null if it
+     *         is not contained in any
+     */
+    public fun getSmallestId(longitude: Double, latitude: Double): String? {
+        return withCellIds(
+            longitude, latitude,
+            { it.firstOrNull() },
+            { cell, x, y ->
+                val id = cell.getSmallestId(x, y)
+                if (id != -1) countryIds[id] else null
+            }
+        )
+    }
+
+    /**
+     * Get the ids of the countries many geo positions are contained in at once. This is faster
+     * than calling [getIds] for each position individually because the positions are grouped by
+     * the raster cell they are in, so that each cell is only visited once.
+     *
+     * @param longitudes longitudes of geo positions (-180...180)
+     * @param latitudes latitudes of geo positions (-90...90)
+     * @param result array into which the result for each position is written: the ids of the
+     *               countries the position at the same index is contained in, ordered by size
+     *               ascending
+     *
+     * @throws IllegalArgumentException if [longitudes], [latitudes] and [result] are not of the
+     *                                  same size, any position is not finite (NaN or Infinite) or
+     *                                  any latitude is not between -90.0 and +90.0
+     */
+    public fun getIds(
+        longitudes: DoubleArray, latitudes: DoubleArray, result: Array<List<String>?>
+    ) {
+        val size = longitudes.size
+        require(latitudes.size == size) { "latitudes must have the same size as longitudes" }
+        require(result.size == size) { "result must have the same size as longitudes" }
+
+        // sort the positions by cell index, remembering their original index in the lower 32 bits
+        val order = LongArray(size)
+        for (i in 0 until size) {
+            val longitude = longitudes[i]
+            val latitude = latitudes[i]
+            validatePosition(longitude, latitude)
+            val cellX = longitudeToCellX(normalizeLongitude(longitude))
+            val cellY = latitudeToCellY(latitude)
+            order[i] = (cellY * rasterWidth + cellX).toLong() shl 32 or i.toLong()
+        }
+        order.sort()
+
+        var cellIndex = -1
+        var cell: IndexedCell? = null
+        var cellIds: List<String>? = null
+        for (key in order) {
+            val index = (key ushr 32).toInt()
+            val i = key.toInt()
+            val cellX = index % rasterWidth
+            val cellY = index / rasterWidth
+            if (index != cellIndex) {
+                cellIndex = index
+                cellIds = getUniformIds(cellX, cellY)
+                cell = if (cellIds == null) getIndexedCell(cellX, cellY) else null
+            }
+            if (cellIds != null) {
+                result[i] = cellIds
+            } else {
+                val longitude = normalizeLongitude(longitudes[i])
+                result[i] = findLeaf(
+                    cell!!, { it.children }, cellX, cellY, longitude, latitudes[i]
+                ) { leaf, x, y -> leaf.getIds(x, y).toIds() }
+            }
+        }
     }
 
     /**
@@ -94,21 +278,41 @@ public class CountryBoundaries internal constructor(
      */
     public fun getContainingIds(
         minLongitude: Double, minLatitude: Double, maxLongitude: Double, maxLatitude: Double
-    ): Set<String> {
-        val ids = HashSet<String>()
-        var firstCell = true
-        for (cell in cellsIn(minLongitude, minLatitude, maxLongitude, maxLatitude)) {
-            if (firstCell) {
-                ids.addAll(cell.containingIds)
-                firstCell = false
-            } else {
-                ids.retainAll(cell.containingIds)
-                if (ids.isEmpty()) break
-            }
-        }
+    ): Set<String> =
+        getContainingIdSet(minLongitude, minLatitude, maxLongitude, maxLatitude).toIds()
+
+    /**
+     * Same as [getContainingIds], only that the indices of the countries are returned, see
+     * [idOf].
+     */
+    public fun getContainingIdSet(
+        minLongitude: Double, minLatitude: Double, maxLongitude: Double, maxLatitude: Double
+    ): CountryIdSet {
+        val ids = newIdSet()
+        getContainingIdSet(minLongitude, minLatitude, maxLongitude, maxLatitude, ids)
         return ids
     }
 
+    /**
+     * Same as [getContainingIdSet], only that the indices of the countries are written into the
+     * given [result], replacing its previous content. Use this to not allocate any memory on
+     * repeated queries.
+     *
+     * @throws IllegalArgumentException additionally if [result] has not been created by this
+     *                                  index, see [newIdSet]
+     */
+    public fun getContainingIdSet(
+        minLongitude: Double, minLatitude: Double, maxLongitude: Double, maxLatitude: Double,
+        result: CountryIdSet
+    ) {
+        validateIdSet(result)
+        result.clear()
+        result.fill(countryIds.size)
+        forEachCellRange(minLongitude, minLatitude, maxLongitude, maxLatitude) { x0, y0, x1, y1 ->
+            idPyramid.retainContainingIds(result, x0, y0, x1, y1)
+        }
+    }
+
     /**
      * Identify which countries may intersect with the given bounding box. In other words, any
      * point within the given bounding box can only be in any of the returned countries (or none).
@@ -133,87 +337,304 @@ public class CountryBoundaries internal constructor(
      */
     public fun getIntersectingIds(
         minLongitude: Double, minLatitude: Double, maxLongitude: Double, maxLatitude: Double
-    ): Set<String> {
-        val ids = HashSet<String>()
-        for (cell in cellsIn(minLongitude, minLatitude, maxLongitude, maxLatitude)) {
-            ids.addAll(cell.getAllIds())
+    ): Set<String> =
+        getIntersectingIdSet(minLongitude, minLatitude, maxLongitude, maxLatitude).toIds()
+
+    /**
+     * Same as [getIntersectingIds], only that the indices of the countries are returned, see
+     * [idOf].
+     */
+    public fun getIntersectingIdSet(
+        minLongitude: Double, minLatitude: Double, maxLongitude: Double, maxLatitude: Double
+    ): CountryIdSet {
+        val ids = newIdSet()
+        getIntersectingIdSet(minLongitude, minLatitude, maxLongitude, maxLatitude, ids)
+        return ids
+    }
+
+    /**
+     * Same as [getIntersectingIdSet], only that the indices of the countries are written into the
+     * given [result], replacing its previous content. Use this to not allocate any memory on
+     * repeated queries.
+     *
+     * @throws IllegalArgumentException additionally if [result] has not been created by this
+     *                                  index, see [newIdSet]
+     */
+    public fun getIntersectingIdSet(
+        minLongitude: Double, minLatitude: Double, maxLongitude: Double, maxLatitude: Double,
+        result: CountryIdSet
+    ) {
+        validateIdSet(result)
+        result.clear()
+        forEachCellRange(minLongitude, minLatitude, maxLongitude, maxLatitude) { x0, y0, x1, y1 ->
+            idPyramid.addAllIdsTo(result, x0, y0, x1, y1)
+            true
         }
+    }
+
+    /**
+     * Identify which countries intersect with the given bounding box. Unlike
+     * [getIntersectingIds], this does not just return which countries are in the same cell(s) of
+     * the raster as the bounding box, but only those whose boundaries actually overlap with it.
+     *
+     * This is slower than [getIntersectingIds], but only the cells at the edge of the bounding
+     * box need to be checked against the boundaries, all cells within are taken as they are.
+     *
+     * The given bounding box may wrap around the 180th longitude, i.e minLongitude = 170 and
+     * maxLongitude = -170.
+     *
+     * @param minLongitude minimum longitude of geo position (-180...180)
+     * @param minLatitude minimum latitude of geo position (-90...90)
+     * @param maxLongitude maximum longitude of geo position (-180...180)
+     * @param maxLatitude maximum latitude of geo position (-90...90)
+     *
+     * @throws IllegalArgumentException if any parameter is not finite (NaN or Infinite),
+     * minLatitude is greater than maxLatitude or any latitude is not between
+     * -90.0 and +90.0
+     *
+     * @return the ids of the countries the given bounding box intersects with, not in any
+     * particular order
+     */
+    public fun getExactIntersectingIds(
+        minLongitude: Double, minLatitude: Double, maxLongitude: Double, maxLatitude: Double
+    ): Set<String> =
+        getExactIntersectingIdSet(minLongitude, minLatitude, maxLongitude, maxLatitude).toIds()
+
+    /**
+     * Same as [getExactIntersectingIds], only that the indices of the countries are returned, see
+     * [idOf].
+     */
+    public fun getExactIntersectingIdSet(
+        minLongitude: Double, minLatitude: Double, maxLongitude: Double, maxLatitude: Double
+    ): CountryIdSet {
+        val ids = newIdSet()
+        getExactIntersectingIdSet(minLongitude, minLatitude, maxLongitude, maxLatitude, ids)
         return ids
     }
 
-    private fun cellsIn(
+    /**
+     * Same as [getExactIntersectingIdSet], only that the indices of the countries are written into
+     * the given [result], replacing its previous content. Use this to not allocate any memory on
+     * repeated queries.
+     *
+     * @throws IllegalArgumentException additionally if [result] has not been created by this
+     *                                  index, see [newIdSet]
+     */
+    public fun getExactIntersectingIdSet(
         minLongitude: Double, minLatitude: Double, maxLongitude: Double, maxLatitude: Double,
-    ): Sequence<CountryBoundariesCell> = sequence {
+        result: CountryIdSet
+    ) {
         var minLongitude = minLongitude
         var maxLongitude = maxLongitude
         validateBounds(minLongitude, minLatitude, maxLongitude, maxLatitude)
+        validateIdSet(result)
         minLongitude = normalizeLongitude(minLongitude)
         maxLongitude = normalizeLongitude(maxLongitude)
+        result.clear()
+        if (minLongitude <= maxLongitude) {
+            addExactIntersectingIdsTo(result, minLongitude, minLatitude, maxLongitude, maxLatitude)
+        } else {
+            // wraps around
+            addExactIntersectingIdsTo(result, minLongitude, minLatitude, 180.0, maxLatitude)
+            addExactIntersectingIdsTo(result, -180.0, minLatitude, maxLongitude, maxLatitude)
+        }
+    }
+
+    /**
+     * Add the ids of the countries that intersect with the given bounding box, which must not
+     * wrap around the 180th longitude, to [ids]
+     */
+    private fun addExactIntersectingIdsTo(
+        ids: CountryIdSet,
+        minLongitude: Double, minLatitude: Double, maxLongitude: Double, maxLatitude: Double
+    ) {
         val minX = longitudeToCellX(minLongitude)
         val maxY = latitudeToCellY(minLatitude)
         val maxX = longitudeToCellX(maxLongitude)
         val minY = latitudeToCellY(maxLatitude)
 
-        // might wrap around
-        val stepsX = if (minX > maxX) rasterWidth - minX + maxX else maxX - minX
+        // cells not at the edge of the bounding box are completely within it
+        if (maxX - minX >= 2 && maxY - minY >= 2) {
+            idPyramid.addAllIdsTo(ids, minX + 1, minY + 1, maxX - 1, maxY - 1)
+        }
 
-        for (xStep in 0..stepsX) {
-            val x = (minX + xStep) % rasterWidth
-            for (y in minY..maxY) {
-                yield(getCell(x, y))
+        for (y in minY..maxY) {
+            val isEdgeRow = y == minY || y == maxY
+            val cellLatitude = cellYToLatitude(y)
+            val cellMinY = (minLatitude - cellLatitude) * rasterHeight / 180.0
+            val cellMaxY = (maxLatitude - cellLatitude) * rasterHeight / 180.0
+            var x = minX
+            while (x <= maxX) {
+                val cellLongitude = cellXToLongitude(x)
+                getIndexedCell(x, y).addIntersectingIdsTo(
+                    ids,
+                    (minLongitude - cellLongitude) * rasterWidth / 360.0, cellMinY,
+                    (maxLongitude - cellLongitude) * rasterWidth / 360.0, cellMaxY
+                )
+                // in the rows in between, only the first and the last cell are at the edge
+                x = if (isEdgeRow || x == maxX) x + 1 else maxX
             }
         }
     }
 
-    private fun getCell(x: Int, y: Int): CountryBoundariesCell =
-        raster[y * rasterWidth + x]
+    /**
+     * Call [block] with the range of cells (inclusive) the given bounding box covers or, if it
+     * wraps around the 180th longitude, with the two ranges of cells on each side. [block]
+     * returns false if the second range can be skipped.
+     */
+    private inline fun forEachCellRange(
+        minLongitude: Double, minLatitude: Double, maxLongitude: Double, maxLatitude: Double,
+        block: (minX: Int, minY: Int, maxX: Int, maxY: Int) -> Boolean
+    ) {
+        validateBounds(minLongitude, minLatitude, maxLongitude, maxLatitude)
+        val minX = longitudeToCellX(normalizeLongitude(minLongitude))
+        val maxY = latitudeToCellY(minLatitude)
+        val maxX = longitudeToCellX(normalizeLongitude(maxLongitude))
+        val minY = latitudeToCellY(maxLatitude)
+
+        if (minX <= maxX) {
+            block(minX, minY, maxX, maxY)
+        } else if (block(minX, minY, rasterWidth - 1, maxY)) {
+            // wraps around
+            block(0, minY, maxX, maxY)
+        }
+    }
+
+    /**
+     * Same as [withIndexedCell], only that if the ids are the same for all positions in the cell
+     * the given position is in, [uniform] is called with these ids instead. This is the case for
+     * most cells and costs only a lookup in [uniformIds].
+     */
+    internal inline fun <T> withCellIds(
+        longitude: Double,
+        latitude: Double,
+        uniform: (ids: List<String>) -> T,
+        block: (cell: IndexedCell, x: Int, y: Int) -> T
+    ): T {
+        var longitude = longitude
+        validatePosition(longitude, latitude)
+        longitude = normalizeLongitude(longitude)
+        val cellX = longitudeToCellX(longitude)
+        val cellY = latitudeToCellY(latitude)
+        val ids = getUniformIds(cellX, cellY)
+        if (ids != null) return uniform(ids)
+        val cell = getIndexedCell(cellX, cellY)
+        return findLeaf(cell, { it.children }, cellX, cellY, longitude, latitude, block)
+    }
+
+    /**
+     * Call [block] with the leaf cell the given position is in and the local coordinates of the
+     * position within that cell
+     */
+    internal inline fun <T> withIndexedCell(
+        longitude: Double, latitude: Double, block: (cell: IndexedCell, x: Int, y: Int) -> T
+    ): T {
+        var longitude = longitude
+        validatePosition(longitude, latitude)
+        longitude = normalizeLongitude(longitude)
+        val cellX = longitudeToCellX(longitude)
+        val cellY = latitudeToCellY(latitude)
+        val cell = getIndexedCell(cellX, cellY)
+        return findLeaf(cell, { it.children }, cellX, cellY, longitude, latitude, block)
+    }
+
+    /**
+     * Descend from the given [cell] of the raster at [cellX], [cellY] through its quadrants down
+     * to the leaf cell the given position is in and call [block] with it and the local
+     * coordinates of the position within that leaf cell.
+     */
+    private inline fun <C, T> findLeaf(
+        cell: C, children: (C) -> List<C>?,
+        cellX: Int, cellY: Int, longitude: Double, latitude: Double,
+        block: (leaf: C, x: Int, y: Int) -> T
+    ): T {
+        var quadrants = children(cell)
+        if (quadrants == null) {
+            val localX = longitudeToLocalX(cellX, longitude)
+            val localY = latitudeToLocalY(cellY, latitude)
+            return block(cell, localX.toInt(), localY.toInt())
+        }
+        // position within the cell from 0.0 to 1.0
+        var x = (longitude - cellXToLongitude(cellX)) * rasterWidth / 360.0
+        var y = (latitude - cellYToLatitude(cellY)) * rasterHeight / 180.0
+        var leaf = cell
+        while (quadrants != null) {
+            val quadrantX = if (x >= 0.5) 1 else 0
+            val quadrantY = if (y >= 0.5) 1 else 0
+            leaf = quadrants[2 * quadrantY + quadrantX]
+            x = 2 * x - quadrantX
+            y = 2 * y - quadrantY
+            quadrants = children(leaf)
+        }
+        val localX = (x * 0xffff).toInt().coerceIn(0, 0xffff)
+        val localY = (y * 0xffff).toInt().coerceIn(0, 0xffff)
+        return block(leaf, localX, localY)
+    }
+
+    private fun getCell(index: Int): CountryBoundariesCell {
+        val cell = raster[index]
+        require(cell !== CountryBoundariesCell.NOT_LOADED) {
+            "position is outside of the loaded region"
+        }
+        return cell
+    }
+
+    /** Return the ids of all positions in the given cell or null if they are not all the same */
+    private fun getUniformIds(x: Int, y: Int): List<String>? {
+        val index = y * rasterWidth + x
+        val ids = uniformIds[index] ?: createUniformIds(x, y).also { uniformIds[index] = it }
+        return if (ids !== NEEDS_GEOMETRY) ids else null
+    }
+
+    private fun createUniformIds(x: Int, y: Int): List<String> {
+        val cell = getIndexedCell(x, y)
+        if (cell.intersectingIds.isNotEmpty() || cell.children != null) return NEEDS_GEOMETRY
+        return if (cell.containingIds.isEmpty()) emptyList() else cell.containingIds.toIds()
+    }
+
+    private fun getIndexedCell(x: Int, y: Int): IndexedCell = indexedRaster[y * rasterWidth + x]
+
+    private fun validateIdSet(ids: CountryIdSet) {
+        require(ids.words.size == (countryIds.size + 63) ushr 6) {
+            "id set has not been created by this index"
+        }
+    }
+
+    /** View on the ids of this set. The set must not be modified afterwards */
+    private fun CountryIdSet.toIds(): Set<String> = CountryIdSetNames(this, countryIds)
+
+    /** Ids of these indices, in the same order */
+    private fun IntArray.toIds(): List<String> = countryIds.namesOf(this)
 
     private fun longitudeToCellX(longitude: Double): Int =
-        floor(rasterWidth * (180 + longitude) / 360.0).toInt().coerceAtMost(rasterWidth - 1)
+        longitudeToCellX(longitude, rasterWidth)
 
     private fun latitudeToCellY(latitude: Double): Int =
-        (ceil(rasterHeight * (90 - latitude) / 180.0) - 1).toInt().coerceAtLeast(0)
+        latitudeToCellY(latitude, rasterHeight)
 
     private fun longitudeToLocalX(cellX: Int, longitude: Double): UShort {
-        val cellLongitude = -180.0 + 360.0 * cellX / rasterWidth
+        val cellLongitude = cellXToLongitude(cellX)
         return ((longitude - cellLongitude) * rasterWidth * 0xffff / 360.0).toInt().toUShort()
     }
 
     private fun latitudeToLocalY(cellY: Int, latitude: Double): UShort {
-        val cellLatitude = +90 - 180.0 * (cellY + 1) / rasterHeight
+        val cellLatitude = cellYToLatitude(cellY)
         return ((latitude - cellLatitude) * rasterHeight * 0xffff / 180.0).toInt().toUShort()
     }
 
-    private fun validateBounds(
-        minLongitude: Double, minLatitude: Double, maxLongitude: Double, maxLatitude: Double
-    ) {
-        require(minLongitude.isFinite()) { "minLongitude must be finite" }
-        require(minLatitude.isFinite()) { "minLatitude must be finite" }
-        require(maxLongitude.isFinite()) { "maxLongitude must be finite" }
-        require(maxLatitude.isFinite()) { "maxLatitude must be finite" }
-        require(minLatitude >= -90 && minLatitude <= 90) { "minLatitude is out of bounds" }
-        require(maxLatitude >= -90 && maxLatitude <= 90) { "maxLatitude is out of bounds" }
-        require(minLatitude <= maxLatitude) { "maxLatitude is smaller than minLatitude" }
-    }
-
-    private fun validatePosition(longitude: Double, latitude: Double) {
-        require(longitude.isFinite()) { "longitude must be finite" }
-        require(latitude.isFinite()) { "latitude must be finite" }
-        require(latitude >= -90 && latitude <= 90) { "latitude is out of bounds" }
-    }
-
-    private fun normalizeLongitude(longitude: Double): Double =
-        normalize(longitude, -180.0, 360.0)
+    /** minimum longitude of the cells in the given column */
+    private fun cellXToLongitude(cellX: Int): Double =
+        -180.0 + 360.0 * cellX / rasterWidth
 
-    private fun normalize(value: Double, startAt: Double, base: Double): Double {
-        var value = value
-        value = value % base
-        if (value < startAt) value += base
-        else if (value >= (startAt + base)) value -= base
-        return value
-    }
+    /** minimum latitude of the cells in the given row */
+    private fun cellYToLatitude(cellY: Int): Double =
+        +90 - 180.0 * (cellY + 1) / rasterHeight
 
-    /** Serialize this CountryBoundaries to the given sink */
+    /**
+     * Serialize this CountryBoundaries to the given sink
+     *
+     * @throws IllegalArgumentException if only a region of the world has been loaded
+     */
     @Throws(IOException::class)
     internal fun serializeTo(sink: Sink) {
         sink.writeCountryBoundaries(this)
@@ -244,5 +665,84 @@ public class CountryBoundaries internal constructor(
         @Throws(IOException::class)
         public fun deserializeFrom(source: Source): CountryBoundaries =
             source.readCountryBoundaries()
+
+        /**
+         * Create a new CountryBoundaries by deserializing from the given source lazily: The
+         * source is read completely, but each cell of the raster is only decoded when it is
+         * accessed the first time. So, loading is a lot faster and less memory is used if only
+         * positions in certain regions of the world are queried.
+         */
+        @Throws(IOException::class)
+        public fun deserializeLazilyFrom(source: Source): CountryBoundaries =
+            source.readCountryBoundariesLazily()
+
+        /**
+         * Create a new CountryBoundaries by deserializing from the given source only the data
+         * for the given bounding box. The data for the cells of the raster outside of it is
+         * skipped, so this uses only a fraction of the memory if only a small region of the
+         * world is of interest. Queries for positions outside the loaded region throw an
+         * [IllegalArgumentException], see [isLoaded].
+         *
+         * The given bounding box may wrap around the 180th longitude, e.g. minLongitude = 170 and
+         * maxLongitude = -170.
+         *
+         * @param minLongitude minimum longitude of geo position (-180...180)
+         * @param minLatitude minimum latitude of geo position (-90...90)
+         * @param maxLongitude maximum longitude of geo position (-180...180)
+         * @param maxLatitude maximum latitude of geo position (-90...90)
+         *
+         * @throws IllegalArgumentException if any parameter is not finite (NaN or Infinite),
+         *                                  minLatitude is greater than maxLatitude or any
+         *                                  latitude is not between -90.0 and +90.0
+         */
+        @Throws(IOException::class)
+        public fun deserializeFrom(
+            source: Source,
+            minLongitude: Double, minLatitude: Double, maxLongitude: Double, maxLatitude: Double
+        ): CountryBoundaries {
+            validateBounds(minLongitude, minLatitude, maxLongitude, maxLatitude)
+            return source.readCountryBoundaries(
+                normalizeLongitude(minLongitude), minLatitude,
+                normalizeLongitude(maxLongitude), maxLatitude
+            )
+        }
     }
+}
+
+/** Marks cells in [CountryBoundaries.uniformIds] whose ids depend on the position. */
+private val NEEDS_GEOMETRY: List<String> = CountryIdList(emptyArray())
+
+internal fun longitudeToCellX(longitude: Double, rasterWidth: Int): Int =
+    floor(rasterWidth * (180 + longitude) / 360.0).toInt().coerceAtMost(rasterWidth - 1)
+
+internal fun latitudeToCellY(latitude: Double, rasterHeight: Int): Int =
+    (ceil(rasterHeight * (90 - latitude) / 180.0) - 1).toInt().coerceAtLeast(0)
+
+private fun validateBounds(
+    minLongitude: Double, minLatitude: Double, maxLongitude: Double, maxLatitude: Double
+) {
+    require(minLongitude.isFinite()) { "minLongitude must be finite" }
+    require(minLatitude.isFinite()) { "minLatitude must be finite" }
+    require(maxLongitude.isFinite()) { "maxLongitude must be finite" }
+    require(maxLatitude.isFinite()) { "maxLatitude must be finite" }
+    require(minLatitude >= -90 && minLatitude <= 90) { "minLatitude is out of bounds" }
+    require(maxLatitude >= -90 && maxLatitude <= 90) { "maxLatitude is out of bounds" }
+    require(minLatitude <= maxLatitude) { "maxLatitude is smaller than minLatitude" }
+}
+
+private fun validatePosition(longitude: Double, latitude: Double) {
+    require(longitude.isFinite()) { "longitude must be finite" }
+    require(latitude.isFinite()) { "latitude must be finite" }
+    require(latitude >= -90 && latitude <= 90) { "latitude is out of bounds" }
+}
+
+internal fun normalizeLongitude(longitude: Double): Double =
+    normalize(longitude, -180.0, 360.0)
+
+private fun normalize(value: Double, startAt: Double, base: Double): Double {
+    var value = value
+    value = value % base
+    if (value < startAt) value += base
+    else if (value >= (startAt + base)) value -= base
+    return value
 }
\ No newline at end of file
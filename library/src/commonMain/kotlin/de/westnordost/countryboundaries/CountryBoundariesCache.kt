@@ -0,0 +1,132 @@
+package de.westnordost.countryboundaries
+
+import kotlin.jvm.JvmOverloads
+
+/**
+ * A bounded cache for point queries in front of the given [boundaries]. Use this if the same
+ * positions are queried over and over again, e.g. the positions of airports or city centres.
+ *
+ * Positions are cached by the cell they are in and their local coordinates within that cell,
+ * which are quantized to 16 bit. So, positions that the index cannot tell apart share an entry,
+ * and a cached result is always exactly what [boundaries] would return. Positions in cells whose
+ * result is the same for all positions in them bypass the cache, as [boundaries] has their
+ * result at hand anyway.
+ *
+ * The cache is direct-mapped: each position has exactly one slot and replaces whatever other
+ * position was cached in that slot before. It is thread-safe without locking, see [LazyRaster].
+ * The returned lists are shared between callers and can not be modified.
+ *
+ * @param boundaries the index to query
+ * @param capacity maximum number of cached positions. It is rounded up to the next power of two
+ * @param recordStatistics whether to count hits and misses, see [hitCount]. Off by default, as
+ *                         it costs a write on every lookup
+ */
+public class CountryBoundariesCache @JvmOverloads constructor(
+    public val boundaries: CountryBoundaries,
+    capacity: Int = 4096,
+    recordStatistics: Boolean = false
+) {
+    init {
+        require(capacity in 1..(1 shl 30)) { "capacity must be between 1 and 2^30" }
+    }
+
+    /** Maximum number of cached positions */
+    public val capacity: Int =
+        if (capacity.countOneBits() == 1) capacity else capacity.takeHighestOneBit() shl 1
+
+    private val entries = arrayOfNulls<Entry>(this.capacity)
+
+    /*
+     * Hits and misses, counted separately for each of STRIPES groups of slots, so that threads
+     * looking up different positions mostly write to different counters. Each stripe is STRIDE
+     * ints apart, so no two stripes share a cache line. The counters are incremented without
+     * synchronization, so increments by threads that hit the same stripe at the same time may get
+     * lost. Null if statistics are not recorded.
+     */
+    private val counters: IntArray? = if (recordStatistics) IntArray(STRIPES * STRIDE) else null
+
+    /**
+     * Number of lookups answered from the cache. Approximate if the cache is used from several
+     * threads at once. Always 0 if statistics are not recorded.
+     */
+    public val hitCount: Long get() = sumOfCounters(HIT)
+
+    /**
+     * Number of lookups not answered from the cache. Approximate if the cache is used from
+     * several threads at once. Always 0 if statistics are not recorded.
+     */
+    public val missCount: Long get() = sumOfCounters(MISS)
+
+    /** Ratio of lookups answered from the cache, between 0.0 and 1.0 */
+    public val hitRate: Double get() {
+        val hits = hitCount
+        val total = hits + missCount
+        return if (total == 0L) 0.0 else hits.toDouble() / total
+    }
+
+    /** Reset [hitCount] and [missCount] to 0 */
+    public fun resetStatistics() {
+        counters?.fill(0)
+    }
+
+    /** Same as [CountryBoundaries.getIds] */
+    public fun getIds(longitude: Double, latitude: Double): List<String> =
+        boundaries.withCellIds(longitude, latitude, { it }, { cell, x, y -> getIds(cell, x, y) })
+
+    /** Same as [CountryBoundaries.getSmallestId] */
+    public fun getSmallestId(longitude: Double, latitude: Double): String? =
+        getIds(longitude, latitude).firstOrNull()
+
+    /** Same as [CountryBoundaries.isIn] */
+    public fun isIn(longitude: Double, latitude: Double, id: String): Boolean =
+        id in getIds(longitude, latitude)
+
+    /** Same as [CountryBoundaries.isInAny] */
+    public fun isInAny(longitude: Double, latitude: Double, ids: Collection<String>): Boolean =
+        getIds(longitude, latitude).any { it in ids }
+
+    private fun getIds(cell: IndexedCell, x: Int, y: Int): List<String> {
+        val slot = slotOf(cell, x, y)
+        val entry = entries[slot]
+        if (entry != null && entry.cell === cell && entry.x == x && entry.y == y) {
+            if (counters != null) counters[(slot and STRIPES - 1) * STRIDE + HIT]++
+            return entry.ids
+        }
+        if (counters != null) counters[(slot and STRIPES - 1) * STRIDE + MISS]++
+        val ids = cell.getIds(x, y).toIds()
+        entries[slot] = Entry(cell, x, y, ids)
+        return ids
+    }
+
+    private fun slotOf(cell: IndexedCell, x: Int, y: Int): Int {
+        var hash = (cell.hashCode() * 31 + x) * 31 + y
+        // spread the bits, as neighbouring positions only differ in the lower bits
+        hash = (hash xor (hash ushr 16)) * 0x45d9f3b
+        hash = hash xor (hash ushr 16)
+        return hash and (capacity - 1)
+    }
+
+    private fun IntArray.toIds(): List<String> = boundaries.countryIds.namesOf(this)
+
+    /** Sum of the given counter of all stripes, each of which wraps around after 2^32 */
+    private fun sumOfCounters(counter: Int): Long {
+        val counters = counters ?: return 0L
+        var sum = 0L
+        for (stripe in 0 until STRIPES) {
+            sum += counters[stripe * STRIDE + counter].toLong() and 0xffffffffL
+        }
+        return sum
+    }
+
+    /** Cached result for a position. Not modified after creation. */
+    private class Entry(val cell: IndexedCell, val x: Int, val y: Int, val ids: List<String>)
+
+    private companion object {
+        /** Number of stripes of the statistics, a power of two */
+        const val STRIPES = 64
+        /** Distance between stripes in ints, 16 * 4 bytes = 64 bytes, the usual cache line size */
+        const val STRIDE = 16
+        const val HIT = 0
+        const val MISS = 1
+    }
+}
@@ -1,22 +1,55 @@
 package de.westnordost.countryboundaries
 
+import kotlin.jvm.JvmOverloads
+
 /** One cell in the country boundaries grid  */
-internal data class CountryBoundariesCell(
-    val containingIds: Collection<String>,
-    val intersectingAreas: Collection<CountryAreas>
+internal data class CountryBoundariesCell @JvmOverloads constructor(
+    val containingIds: List<String>,
+    val intersectingAreas: List<CountryAreas>,
+    /**
+     * If not null, this cell is split into four quadrants of equal size which are cells again.
+     * The index of each is 2 * y + x, where x and y are 0 or 1 for the lower or upper half in
+     * local coordinates, i.e. south-west, south-east, north-west, north-east. A split cell has
+     * no [containingIds] and [intersectingAreas] of its own.
+     */
+    val children: List<CountryBoundariesCell>? = null
 ) {
+    /** Index to look up whether any [intersectingAreas] covers a point fast. See [LazyRaster] */
+    private var grid: CellGrid? = null
+
     /** Returns whether the given point is in any of the given ids  */
-    fun isInAny(point: Point, ids: Collection<String>): Boolean =
-        containingIds.any { it in ids } ||
-        intersectingAreas.any { it.id in ids && it.covers(point) }
+    fun isInAny(point: Point, ids: Collection<String>): Boolean {
+        val x = point.x.toInt()
+        val y = point.y.toInt()
+        return containingIds.any { it in ids } ||
+            intersectingAreas.indices.any { intersectingAreas[it].id in ids && covers(it, x, y) }
+    }
 
     /** Return all ids that cover the given point  */
-    fun getIds(point: Point): List<String> =
-        containingIds +
-        intersectingAreas.filter { it.covers(point) }.map { it.id }
+    fun getIds(point: Point): List<String> {
+        val x = point.x.toInt()
+        val y = point.y.toInt()
+        return containingIds +
+            intersectingAreas.indices.filter { covers(it, x, y) }.map { intersectingAreas[it].id }
+    }
+
+    /** Returns whether the intersecting area with the given index covers the point at [x], [y] */
+    fun covers(area: Int, x: Int, y: Int): Boolean {
+        val grid = grid ?: CellGrid(intersectingAreas).also { grid = it }
+        return grid.covers(area, x, y)
+    }
 
     /** Return all ids that completely cover or partly cover this cell  */
     fun getAllIds(): Collection<String> =
         containingIds +
-        intersectingAreas.map { it.id }
+        intersectingAreas.map { it.id } +
+        children.orEmpty().flatMap { it.getAllIds() }
+
+    companion object {
+        /**
+         * Placeholder for a cell whose data has not been loaded. Compare by identity, it is
+         * equal to any other empty cell.
+         */
+        val NOT_LOADED = CountryBoundariesCell(emptyList(), emptyList())
+    }
 }
@@ -0,0 +1,136 @@
+package de.westnordost.countryboundaries
+
+/**
+ * A set of countries of one [CountryBoundaries], each identified by its index as returned by
+ * [CountryBoundaries.idOf]. It is backed by a bitset, so membership tests and set operations are
+ * cheap operations on a few machine words.
+ *
+ * Create with [CountryBoundaries.newIdSet] or [CountryBoundaries.idSetOf].
+ */
+public class CountryIdSet internal constructor(private val capacity: Int) {
+    internal val words: LongArray = LongArray((capacity + 63) ushr 6)
+
+    /** @return whether the country with the given index is in this set */
+    public operator fun contains(index: Int): Boolean {
+        val word = index ushr 6
+        return index >= 0 && word < words.size && (words[word] and (1L shl index)) != 0L
+    }
+
+    /**
+     * Add the country with the given index to this set
+     *
+     * @throws IndexOutOfBoundsException if the index is not a valid index of a country
+     */
+    public fun add(index: Int) {
+        if (index !in 0 until capacity) {
+            throw IndexOutOfBoundsException("index $index is not between 0 and $capacity")
+        }
+        val word = index ushr 6
+        words[word] = words[word] or (1L shl index)
+    }
+
+    /** Remove the country with the given index from this set */
+    public fun remove(index: Int) {
+        val word = index ushr 6
+        if (index < 0 || word >= words.size) return
+        words[word] = words[word] and (1L shl index).inv()
+    }
+
+    /** Remove all countries from this set */
+    public fun clear() {
+        words.fill(0L)
+    }
+
+    /** The number of countries in this set */
+    public val size: Int get() = words.sumOf { it.countOneBits() }
+
+    /** @return whether this set is empty */
+    public fun isEmpty(): Boolean = words.all { it == 0L }
+
+    /**
+     * @return the smallest index of a country in this set that is equal to or greater than
+     *         [fromIndex] or -1 if there is none. Use this to iterate through the set.
+     */
+    public fun nextIndex(fromIndex: Int): Int {
+        var w = fromIndex.coerceAtLeast(0) ushr 6
+        if (w >= words.size) return -1
+        var word = words[w] and (-1L shl fromIndex.coerceAtLeast(0))
+        while (word == 0L) {
+            if (++w == words.size) return -1
+            word = words[w]
+        }
+        return (w shl 6) + word.countTrailingZeroBits()
+    }
+
+    /** @return the indices of all countries in this set, ascending */
+    public fun toIntArray(): IntArray {
+        val result = IntArray(size)
+        var i = 0
+        var index = nextIndex(0)
+        while (index != -1) {
+            result[i++] = index
+            index = nextIndex(index + 1)
+        }
+        return result
+    }
+
+    /** Add all countries with an index lower than [count] to this set */
+    internal fun fill(count: Int) {
+        val fullWords = count ushr 6
+        words.fill(-1L, 0, fullWords)
+        if (count and 63 != 0) words[fullWords] = words[fullWords] or ((1L shl count) - 1)
+    }
+
+    /** Add all countries in [other] to this set */
+    internal fun addAll(other: CountryIdSet) {
+        for (i in 0 until minOf(words.size, other.words.size)) {
+            words[i] = words[i] or other.words[i]
+        }
+    }
+
+    /** Remove all countries from this set that are not in [other] */
+    internal fun retainAll(other: CountryIdSet) {
+        for (i in words.indices) {
+            words[i] = if (i < other.words.size) words[i] and other.words[i] else 0L
+        }
+    }
+
+    override fun equals(other: Any?): Boolean {
+        if (this === other) return true
+        if (other !is CountryIdSet) return false
+        return words.contentEquals(other.words)
+    }
+
+    override fun hashCode(): Int = words.contentHashCode()
+
+    override fun toString(): String = toIntArray().joinToString(", ", "[", "]")
+}
+
+/**
+ * Read-only view on the ids of the countries in the given [set]. It is only valid as long as [set]
+ * is not modified.
+ */
+internal class CountryIdSetNames(
+    private val set: CountryIdSet,
+    private val ids: CountryIds
+) : AbstractSet<String>() {
+    override val size: Int get() = set.size
+
+    override fun contains(element: String): Boolean {
+        val index = ids.indexOf(element)
+        return index != -1 && index in set
+    }
+
+    override fun iterator(): Iterator<String> = object : Iterator<String> {
+        private var index = set.nextIndex(0)
+
+        override fun hasNext(): Boolean = index != -1
+
+        override fun next(): String {
+            if (index == -1) throw NoSuchElementException()
+            val id = ids[index]
+            index = set.nextIndex(index + 1)
+            return id
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package de.westnordost.countryboundaries
+
+/**
+ * Dictionary of all country ids of one [CountryBoundaries], each identified by a dense index.
+ * The indices are assigned in the order of the size of the countries, ascending.
+ */
+internal class CountryIds(private val names: Array<String>) {
+    private val indices = HashMap<String, Int>(names.size)
+
+    init {
+        for (i in names.indices) {
+            indices[names[i]] = i
+        }
+    }
+
+    val size: Int get() = names.size
+
+    /** Return the index of the given id or -1 if it is not in this dictionary */
+    fun indexOf(id: String): Int = indices[id] ?: -1
+
+    /** Return the id at the given index */
+    operator fun get(index: Int): String = names[index]
+
+    /** Return the ids at the given indices, in the same order */
+    fun namesOf(indices: IntArray): List<String> =
+        CountryIdList(Array(indices.size) { names[indices[it]] })
+
+    companion object {
+        /** Create a dictionary of all ids in [geometrySizes] and the given [ids] */
+        fun of(geometrySizes: Map<String, Double>, ids: Collection<String>): CountryIds {
+            val allIds = HashSet<String>(geometrySizes.keys)
+            allIds.addAll(ids)
+            val names = allIds.toTypedArray()
+            names.sortWith(compareBy<String>({ geometrySizes[it] ?: 0.0 }, { it }))
+            return CountryIds(names)
+        }
+    }
+}
+
+/**
+ * Read-only list of ids. Other than the lists created by [List], it cannot be modified by casting
+ * it to a [MutableList] and, as all its fields are final, it is safely published to other threads.
+ * So, it can be handed out to any number of callers.
+ */
+internal class CountryIdList(private val ids: Array<String>) : AbstractList<String>() {
+    override val size: Int get() = ids.size
+
+    override fun get(index: Int): String = ids[index]
+}
+
+/** Return all ids that occur in the cells of this raster */
+internal fun List<CountryBoundariesCell>.collectIds(): Set<String> {
+    val ids = HashSet<String>()
+    for (cell in this) {
+        ids.addAll(cell.getAllIds())
+    }
+    return ids
+}
@@ -0,0 +1,126 @@
+package de.westnordost.countryboundaries
+
+/**
+ * Pyramid of the ids in square blocks of 2x2, 4x4, 8x8 etc. cells of a raster, so that the ids in
+ * large parts of the raster can be looked up from a few blocks instead of cell by cell. Blocks
+ * are only computed when they are accessed the first time, see [LazyRaster].
+ */
+internal class IdPyramid(
+    private val rasterWidth: Int,
+    private val rasterHeight: Int,
+    private val idCount: Int,
+    private val getCell: (x: Int, y: Int) -> IndexedCell
+) {
+    /** Number of levels above the raster. The single block of the top level covers all cells */
+    private val levelCount: Int
+
+    /** For each level, its blocks row by row. A block of level n covers 2^n x 2^n cells */
+    private val levels: Array<Array<IdBlock?>>
+
+    init {
+        var count = 0
+        while ((1 shl count) < maxOf(rasterWidth, rasterHeight)) count++
+        levelCount = count
+        levels = Array(count) { arrayOfNulls(blocksX(it + 1) * blocksY(it + 1)) }
+    }
+
+    /** Add the ids of all cells from [minX], [minY] to [maxX], [maxY] (inclusive) to [ids] */
+    fun addAllIdsTo(ids: CountryIdSet, minX: Int, minY: Int, maxX: Int, maxY: Int) {
+        visit(levelCount, 0, 0, minX, minY, maxX, maxY, ids, false)
+    }
+
+    /**
+     * Remove all ids from [ids] that do not completely cover all cells from [minX], [minY] to
+     * [maxX], [maxY] (inclusive). Returns whether any ids are left.
+     */
+    fun retainContainingIds(
+        ids: CountryIdSet, minX: Int, minY: Int, maxX: Int, maxY: Int
+    ): Boolean =
+        visit(levelCount, 0, 0, minX, minY, maxX, maxY, ids, true)
+
+    /**
+     * Visit the block at [blockX], [blockY] of the given [level] or, if it only partly overlaps
+     * with the given cells, its quadrants, recursively. If [containing], only the containing ids
+     * are retained in [ids], otherwise all ids are added to [ids]. Returns false if visiting the
+     * remaining blocks can be skipped.
+     */
+    private fun visit(
+        level: Int, blockX: Int, blockY: Int,
+        minX: Int, minY: Int, maxX: Int, maxY: Int,
+        ids: CountryIdSet, containing: Boolean
+    ): Boolean {
+        val x0 = blockX shl level
+        val y0 = blockY shl level
+        val x1 = minOf(x0 + (1 shl level), rasterWidth) - 1
+        val y1 = minOf(y0 + (1 shl level), rasterHeight) - 1
+        if (x0 > maxX || x1 < minX || y0 > maxY || y1 < minY) return true
+
+        if (level == 0 || x0 >= minX && x1 <= maxX && y0 >= minY && y1 <= maxY) {
+            if (!containing) {
+                ids.addAll(getAllIds(level, blockX, blockY))
+                return true
+            }
+            ids.retainAll(getContainingIds(level, blockX, blockY))
+            return !ids.isEmpty()
+        }
+
+        for (quadrantY in 0..1) {
+            for (quadrantX in 0..1) {
+                val x = 2 * blockX + quadrantX
+                val y = 2 * blockY + quadrantY
+                if (!visit(level - 1, x, y, minX, minY, maxX, maxY, ids, containing)) return false
+            }
+        }
+        return true
+    }
+
+    /** Return the ids that completely cover all cells of the given block */
+    private fun getContainingIds(level: Int, blockX: Int, blockY: Int): CountryIdSet =
+        if (level == 0) {
+            getCell(blockX, blockY).containingIdSet
+        } else {
+            getBlock(level, blockX, blockY).containingIds
+        }
+
+    /** Return the ids that completely or partly cover any cell of the given block */
+    private fun getAllIds(level: Int, blockX: Int, blockY: Int): CountryIdSet =
+        if (level == 0) getCell(blockX, blockY).allIdSet else getBlock(level, blockX, blockY).allIds
+
+    private fun getBlock(level: Int, blockX: Int, blockY: Int): IdBlock {
+        val blocks = levels[level - 1]
+        val index = blockY * blocksX(level) + blockX
+        return blocks[index] ?: createBlock(level, blockX, blockY).also { blocks[index] = it }
+    }
+
+    private fun createBlock(level: Int, blockX: Int, blockY: Int): IdBlock {
+        val containingIds = CountryIdSet(idCount)
+        containingIds.fill(idCount)
+        val allIds = CountryIdSet(idCount)
+
+        for (quadrantY in 0..1) {
+            for (quadrantX in 0..1) {
+                val x = 2 * blockX + quadrantX
+                val y = 2 * blockY + quadrantY
+                // blocks at the right and bottom edge of the raster may be incomplete
+                if ((x shl (level - 1)) >= rasterWidth || (y shl (level - 1)) >= rasterHeight) {
+                    continue
+                }
+                containingIds.retainAll(getContainingIds(level - 1, x, y))
+                allIds.addAll(getAllIds(level - 1, x, y))
+            }
+        }
+        return IdBlock(containingIds, allIds)
+    }
+
+    private fun blocksX(level: Int): Int = (rasterWidth + (1 shl level) - 1) shr level
+
+    private fun blocksY(level: Int): Int = (rasterHeight + (1 shl level) - 1) shr level
+}
+
+/** The ids of a block of cells. Not modified after creation. */
+private class IdBlock(
+    /** ids that completely cover all cells of the block */
+    val containingIds: CountryIdSet,
+    /** ids that completely or partly cover any cell of the block */
+    val allIds: CountryIdSet
+)
@@ -0,0 +1,140 @@
+package de.westnordost.countryboundaries
+
+import kotlin.math.ceil
+import kotlin.math.floor
+
+/**
+ * A [CountryBoundariesCell] with all its ids resolved to their indices in the given [CountryIds],
+ * so that it can be queried with integer ids and [CountryIdSet]s.
+ */
+internal class IndexedCell(val cell: CountryBoundariesCell, ids: CountryIds) {
+    /** The quadrants of this cell, see [CountryBoundariesCell.children] */
+    val children: List<IndexedCell>? = cell.children?.map { IndexedCell(it, ids) }
+
+    /**
+     * indices of [CountryBoundariesCell.containingIds] or, if this cell is split, of the ids that
+     * completely cover all its quadrants, ascending
+     */
+    val containingIds: IntArray =
+        if (children == null) {
+            IntArray(cell.containingIds.size) { ids.indexOf(cell.containingIds[it]) }
+        } else {
+            children[0].containingIds
+                .filter { id -> children.all { id in it.containingIds } }
+                .toIntArray()
+        }.also { it.sort() }
+
+    /** index of the id of each of the [CountryBoundariesCell.intersectingAreas], in that order */
+    val intersectingIds = IntArray(cell.intersectingAreas.size) {
+        ids.indexOf(cell.intersectingAreas[it].id)
+    }
+
+    /**
+     * Indices of the [CountryBoundariesCell.intersectingAreas] ordered by their id ascending, so
+     * that the ids of a point can be merged with [containingIds] already sorted by size
+     */
+    private val intersectingOrder: IntArray =
+        intersectingIds.indices.sortedBy { intersectingIds[it] }.toIntArray()
+
+    /** [containingIds] as a set, to combine it with other sets quickly */
+    val containingIdSet: CountryIdSet = CountryIdSet(ids.size)
+
+    /** indices of all ids that completely cover or partly cover this cell */
+    val allIdSet: CountryIdSet = CountryIdSet(ids.size)
+
+    init {
+        for (id in containingIds) containingIdSet.add(id)
+        allIdSet.addAll(containingIdSet)
+        for (id in intersectingIds) allIdSet.add(id)
+        children?.forEach { allIdSet.addAll(it.allIdSet) }
+    }
+
+    /**
+     * Returns whether the point at the given [x], [y] coordinates is in any of the given ids.
+     * Only for cells that are not split.
+     */
+    fun isInAny(x: Int, y: Int, ids: CountryIdSet): Boolean {
+        for (id in containingIds) {
+            if (id in ids) return true
+        }
+        for (i in intersectingIds.indices) {
+            if (intersectingIds[i] in ids && cell.covers(i, x, y)) return true
+        }
+        return false
+    }
+
+    /**
+     * Return the indices of all ids that cover the point at the given [x], [y], ascending.
+     * Only for cells that are not split.
+     */
+    fun getIds(x: Int, y: Int): IntArray {
+        if (intersectingIds.isEmpty()) return containingIds.copyOf()
+        val result = IntArray(containingIds.size + intersectingIds.size)
+        var size = 0
+        var i = 0
+        // merge the sorted containing ids with the ids of the covering areas, which are sorted, too
+        for (area in intersectingOrder) {
+            if (!cell.covers(area, x, y)) continue
+            val id = intersectingIds[area]
+            while (i < containingIds.size && containingIds[i] < id) {
+                result[size++] = containingIds[i++]
+            }
+            result[size++] = id
+        }
+        while (i < containingIds.size) result[size++] = containingIds[i++]
+        return if (size < result.size) result.copyOf(size) else result
+    }
+
+    /**
+     * Return the index of the smallest id that covers the point at the given [x], [y] or -1 if
+     * there is none. Only for cells that are not split.
+     */
+    fun getSmallestId(x: Int, y: Int): Int {
+        val smallest = if (containingIds.isEmpty()) Int.MAX_VALUE else containingIds[0]
+        for (area in intersectingOrder) {
+            val id = intersectingIds[area]
+            if (id > smallest) break
+            if (cell.covers(area, x, y)) return id
+        }
+        return if (smallest == Int.MAX_VALUE) -1 else smallest
+    }
+
+    /**
+     * Add the indices of all ids whose areas intersect with the given rectangle to [ids]. The
+     * rectangle is given relative to this cell, i.e. 0.0 to 1.0 spans the whole cell.
+     */
+    fun addIntersectingIdsTo(
+        ids: CountryIdSet, minX: Double, minY: Double, maxX: Double, maxY: Double
+    ) {
+        if (minX > 1.0 || minY > 1.0 || maxX < 0.0 || maxY < 0.0) return
+        if (minX <= 0.0 && minY <= 0.0 && maxX >= 1.0 && maxY >= 1.0) {
+            ids.addAll(allIdSet)
+            return
+        }
+        if (children != null) {
+            for (i in children.indices) {
+                val quadrantX = i % 2
+                val quadrantY = i / 2
+                children[i].addIntersectingIdsTo(
+                    ids,
+                    2 * minX - quadrantX, 2 * minY - quadrantY,
+                    2 * maxX - quadrantX, 2 * maxY - quadrantY
+                )
+            }
+            return
+        }
+        ids.addAll(containingIdSet)
+        if (intersectingIds.isEmpty()) return
+        // rounded outwards so that no area touching the rectangle is missed
+        val localMinX = floor(minX * 0xffff).toInt().coerceAtLeast(0)
+        val localMinY = floor(minY * 0xffff).toInt().coerceAtLeast(0)
+        val localMaxX = ceil(maxX * 0xffff).toInt().coerceAtMost(0xffff)
+        val localMaxY = ceil(maxY * 0xffff).toInt().coerceAtMost(0xffff)
+        for (i in intersectingIds.indices) {
+            val id = intersectingIds[i]
+            if (id in ids) continue
+            val areas = cell.intersectingAreas[i]
+            if (areas.intersects(localMinX, localMinY, localMaxX, localMaxY)) ids.add(id)
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package de.westnordost.countryboundaries
+
+/**
+ * A raster whose cells are only created, via [createCell], when they are accessed the first time.
+ *
+ * If the [capacity] is smaller than the [size], at most that many cells are kept: Each cell has a
+ * fixed slot, shared with other cells, and a cell that is created replaces the one in its slot.
+ *
+ * This is thread-safe without locking, as are all the other values in this library that are
+ * created on first access and then stored in a plain field or array: The values are immutable and
+ * all their fields are final, so any thread that sees a value also sees it completely initialized.
+ * If two threads happen to create the same value at the same time, they get equal values and any
+ * of the two ends up being stored.
+ */
+internal class LazyRaster<T : Any>(
+    override val size: Int,
+    private val capacity: Int = size,
+    private val createCell: (index: Int) -> T
+) : AbstractList<T>() {
+    init {
+        require(capacity > 0 || size == 0) { "capacity must be positive" }
+    }
+
+    private val isBounded = capacity < size
+
+    private val cells = arrayOfNulls<Any>(minOf(capacity, size))
+
+    @Suppress("UNCHECKED_CAST")
+    override fun get(index: Int): T {
+        if (index !in 0 until size) {
+            throw IndexOutOfBoundsException("index $index is not between 0 and $size")
+        }
+        if (!isBounded) {
+            return cells[index] as T? ?: createCell(index).also { cells[index] = it }
+        }
+        val slot = index % capacity
+        val entry = cells[slot] as Entry<T>?
+        if (entry != null && entry.index == index) return entry.value
+        return createCell(index).also { cells[slot] = Entry(index, it) }
+    }
+
+    /** A cell together with its index, so that it can be told apart from the others in its slot */
+    private class Entry<T>(val index: Int, val value: T)
+}
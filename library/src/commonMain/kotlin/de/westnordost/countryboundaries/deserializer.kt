@@ -1,29 +1,133 @@
 package de.westnordost.countryboundaries
 
+import kotlinx.io.Buffer
 import kotlinx.io.IOException
 import kotlinx.io.Source
+import kotlinx.io.readByteArray
 import kotlinx.io.readDouble
 import kotlinx.io.readString
 import kotlinx.io.readUByte
 import kotlinx.io.readUShort
 
 internal fun Source.readCountryBoundaries() : CountryBoundaries {
+    val header = readHeader()
+    val raster = List(header.rasterSize) { readCell(header) }
+    val countryIds = CountryIds.of(header.geometrySizes, header.ids ?: raster.collectIds())
+
+    return CountryBoundaries(raster, header.rasterWidth, header.geometrySizes, countryIds)
+}
+
+/**
+ * Read the CountryBoundaries, but only decode the cells that intersect with the given bounding
+ * box. All other cells are skipped and [CountryBoundariesCell.NOT_LOADED] in the raster. The
+ * bounding box is expected to be valid and its longitudes to be normalized.
+ */
+internal fun Source.readCountryBoundaries(
+    minLongitude: Double, minLatitude: Double, maxLongitude: Double, maxLatitude: Double
+): CountryBoundaries {
+    val header = readHeader()
+    val rasterWidth = header.rasterWidth
+    val rasterHeight = header.rasterSize / rasterWidth
+
+    val minX = longitudeToCellX(minLongitude, rasterWidth)
+    val maxX = longitudeToCellX(maxLongitude, rasterWidth)
+    val minY = latitudeToCellY(maxLatitude, rasterHeight)
+    val maxY = latitudeToCellY(minLatitude, rasterHeight)
+
+    // all ids are needed for the dictionary, not only those in the loaded region
+    val scannedIds = if (header.ids == null) HashSet<String>() else null
+    val cellOffsets = header.cellOffsets
+    val raster = List(header.rasterSize) { i ->
+        val x = i % rasterWidth
+        val y = i / rasterWidth
+        // might wrap around
+        val isInX = if (minX > maxX) x >= minX || x <= maxX else x in minX..maxX
+        if (isInX && y in minY..maxY) {
+            readCell(header).also { scannedIds?.addAll(it.getAllIds()) }
+        } else {
+            if (cellOffsets != null) skip((cellOffsets[i + 1] - cellOffsets[i]).toLong())
+            else scanCellV2(scannedIds!!)
+            CountryBoundariesCell.NOT_LOADED
+        }
+    }
+    val countryIds = CountryIds.of(header.geometrySizes, header.ids ?: scannedIds!!)
+
+    return CountryBoundaries(raster, rasterWidth, header.geometrySizes, countryIds)
+}
+
+/**
+ * Read the CountryBoundaries, but only decode each cell when it is accessed the first time. The
+ * data of the cells is kept in memory in its serialized form until then.
+ */
+internal fun Source.readCountryBoundariesLazily(): CountryBoundaries {
+    val header = readHeader()
+
+    val bytes: ByteArray
+    val offsets: IntArray
+    val ids: Collection<String>
+    val cellOffsets = header.cellOffsets
+    if (cellOffsets != null && header.ids != null) {
+        bytes = readByteArray(cellOffsets[header.rasterSize])
+        offsets = cellOffsets
+        ids = header.ids
+    } else {
+        bytes = readByteArray()
+        val scannedIds = HashSet<String>()
+        val buffer = Buffer()
+        buffer.write(bytes)
+        offsets = buffer.scanCellOffsetsV2(header.rasterSize, scannedIds)
+        ids = scannedIds
+    }
+
+    val raster = LazyRaster(header.rasterSize) { i ->
+        val buffer = Buffer()
+        buffer.write(bytes, offsets[i], offsets[i + 1])
+        buffer.readCell(header)
+    }
+    val countryIds = CountryIds.of(header.geometrySizes, ids)
+    return CountryBoundaries(raster, header.rasterWidth, header.geometrySizes, countryIds)
+}
+
+/** Everything in the serialized data that comes before the cells of the raster */
+internal class CountryBoundariesHeader(
+    val version: Int,
+    val geometrySizes: Map<String, Double>,
+    /** All ids, cells refer to them by their index. Only present since version 3 */
+    val ids: List<String>?,
+    val rasterWidth: Int,
+    val rasterSize: Int,
+    /**
+     * Offset of each cell, relative to the first cell, followed by the offset of the end of the
+     * last cell. Only present since version 3
+     */
+    val cellOffsets: IntArray?,
+    /** Number of bytes the header occupies */
+    val byteCount: Int,
+)
+
+internal fun Source.readHeader(): CountryBoundariesHeader {
     val version = readUShort().toInt()
-    if (version != 2) {
+    if (version !in 2..4) {
         throw IOException(
             "Wrong version number '$version' of the file serialization format " +
-            "(expected: '2'). You may need to get the current version of the data."
+            "(expected: '2' to '4'). You may need to get the current version of the data."
         )
     }
 
     val geometrySizesCount = readInt()
     if (geometrySizesCount < 0) throw IOException("Invalid data")
 
+    var byteCount = 2 + 4
     val geometrySizes = HashMap<String, Double>(geometrySizesCount)
+    val ids = if (version >= 3) ArrayList<String>(geometrySizesCount) else null
     repeat(geometrySizesCount) {
-        val id = readUTF().interned()
+        val length = readUShort().toInt()
+        val id = readString(length.toLong()).interned()
         val size = readDouble()
-        geometrySizes.put(id, size)
+        // since version 3, all ids are listed here, including those without a size
+        if (!size.isNaN()) geometrySizes.put(id, size)
+        ids?.add(id)
+        byteCount += 2 + length + 8
     }
 
     val rasterWidth = readInt()
@@ -31,48 +135,140 @@ internal fun Source.readCountryBoundaries() : CountryBoundaries {
 
     val rasterSize = readInt()
     if (rasterSize < 0) throw IOException("Invalid data")
+    byteCount += 4 + 4
 
-    val raster = List(rasterSize) { readCell() }
+    val cellOffsets = if (version >= 3) IntArray(rasterSize + 1) { readInt() } else null
+    if (cellOffsets != null) {
+        for (i in 0 until rasterSize) {
+            if (cellOffsets[i] > cellOffsets[i + 1]) throw IOException("Invalid data")
+        }
+        byteCount += 4 * (rasterSize + 1)
+    }
 
-    return CountryBoundaries(raster, rasterWidth, geometrySizes)
+    return CountryBoundariesHeader(
+        version, geometrySizes, ids, rasterWidth, rasterSize, cellOffsets, byteCount
+    )
 }
 
-private fun Source.readCell(): CountryBoundariesCell {
-    val containingIdsSize = readUByte().toInt()
+internal fun Source.readCell(header: CountryBoundariesHeader): CountryBoundariesCell {
+    val ids = header.ids
 
-    val containingIds = List(containingIdsSize) { readUTF().interned() }
+    val containingIdsSize = readUByte().toInt()
+    val containingIds = List(containingIdsSize) { readId(ids) }
 
     val intersectingAreasSize = readUByte().toInt()
-    val intersectingAreas = List(intersectingAreasSize) { readAreas() }
+    val intersectingAreas = List(intersectingAreasSize) {
+        if (ids == null) readAreasV2() else readAreas(ids)
+    }
+
+    // since version 4, a cell may be split into quadrants
+    val children = if (header.version >= 4) {
+        when (readUByte().toInt()) {
+            0 -> null
+            4 -> List(4) { readCell(header) }
+            else -> throw IOException("Invalid data")
+        }
+    } else {
+        null
+    }
+
+    return CountryBoundariesCell(containingIds, intersectingAreas, children)
+}
+
+/** Read an id. Since version 3, ids are stored as an index to the given [ids], before inline */
+private fun Source.readId(ids: List<String>?): String {
+    if (ids == null) return readUTF().interned()
+    val index = readUShort().toInt()
+    if (index >= ids.size) throw IOException("Invalid data")
+    return ids[index]
+}
+
+private fun Source.readAreas(ids: List<String>): CountryAreas {
+    val id = readId(ids)
+    val outerCount = readUByte().toInt()
+    val ringCount = outerCount + readUByte().toInt()
+
+    val ringOffsets = IntArray(ringCount + 1)
+    for (i in 0 until ringCount) {
+        val ringSize = readInt()
+        if (ringSize < 0) throw IOException("Invalid data")
+        ringOffsets[i + 1] = ringOffsets[i] + ringSize
+    }
+    val points = ShortArray(ringOffsets[ringCount] * 2) { readShort() }
 
-    return CountryBoundariesCell(containingIds, intersectingAreas)
+    return CountryAreas(id, points, ringOffsets, outerCount)
 }
 
-private fun Source.readAreas(): CountryAreas {
+private fun Source.readAreasV2(): CountryAreas {
     val id = readUTF().interned()
-    val outer = readPolygons()
-    val inner = readPolygons()
+    val rings = ArrayList<ShortArray>()
+    val outerCount = readRingsV2(rings)
+    readRingsV2(rings)
 
-    return CountryAreas(id, outer, inner)
+    return CountryAreas.of(id, rings, outerCount)
 }
 
-private fun Source.readPolygons(): List<List<Point>> {
-    val polygonsSize = readUByte().toInt()
-    return List(polygonsSize) { readRing() }
+/** Read a number of rings into [rings] and return how many were read */
+private fun Source.readRingsV2(rings: MutableList<ShortArray>): Int {
+    val ringsSize = readUByte().toInt()
+    repeat(ringsSize) { rings.add(readRingV2()) }
+    return ringsSize
 }
 
-private fun Source.readRing(): List<Point> {
+/** Read a ring as alternating x and y coordinates */
+private fun Source.readRingV2(): ShortArray {
     val ringSize = readInt()
     if (ringSize < 0) {
         throw IOException("Invalid data")
     }
-    return List(ringSize) { readPoint() }
+    return ShortArray(ringSize * 2) { readShort() }
+}
+
+/**
+ * Find out where each cell starts by skipping through all the cells in the version 2 format,
+ * only reading the ids in them into [ids]. Returns the offset of each cell, relative to the first
+ * cell, followed by the offset of the end of the last cell.
+ */
+internal fun Source.scanCellOffsetsV2(rasterSize: Int, ids: MutableSet<String>): IntArray {
+    val offsets = IntArray(rasterSize + 1)
+    for (i in 0 until rasterSize) {
+        offsets[i + 1] = offsets[i] + scanCellV2(ids)
+    }
+    return offsets
+}
+
+/**
+ * Skip over one cell in the version 2 format, only reading the ids in it into [ids], and return
+ * the number of bytes it occupies.
+ */
+private fun Source.scanCellV2(ids: MutableSet<String>): Int {
+    val containingIdsSize = readUByte().toInt()
+    var byteCount = 1
+    repeat(containingIdsSize) { byteCount += scanUTF(ids) }
+
+    val intersectingAreasSize = readUByte().toInt()
+    byteCount += 1
+    repeat(intersectingAreasSize) {
+        byteCount += scanUTF(ids)
+        // outer and inner rings
+        repeat(2) {
+            val ringsSize = readUByte().toInt()
+            byteCount += 1
+            repeat(ringsSize) {
+                val ringSize = readInt()
+                if (ringSize < 0) throw IOException("Invalid data")
+                skip(ringSize * 4L)
+                byteCount += 4 + ringSize * 4
+            }
+        }
+    }
+    return byteCount
 }
 
-private fun Source.readPoint(): Point {
-    val x = readUShort()
-    val y = readUShort()
-    return Point(x, y)
+private fun Source.scanUTF(ids: MutableSet<String>): Int {
+    val length = readUShort().toInt()
+    ids.add(readString(length.toLong()).interned())
+    return 2 + length
 }
 
 // mimics https://docs.oracle.com/javase/8/docs/api/java/io/DataInput.html#readUTF--
@@ -87,4 +283,4 @@ private inline fun <reified T> List(capacity: Int, noinline init: (Int) -> T): L
     return Array(capacity, init).asList()
 }
 
-internal expect fun String.interned(): String
\ No newline at end of file
+internal expect fun String.interned(): String
@@ -1,35 +1,55 @@
 package de.westnordost.countryboundaries
 
+import kotlinx.io.Buffer
 import kotlinx.io.Sink
 import kotlinx.io.writeDouble
 import kotlinx.io.writeUByte
 import kotlinx.io.writeUShort
-import kotlin.collections.iterator
 
 internal fun Sink.writeCountryBoundaries(boundaries: CountryBoundaries) {
+    // otherwise, cells that have not been loaded would be written as empty cells
+    require(boundaries.raster.none { it === CountryBoundariesCell.NOT_LOADED }) {
+        "Only a region of the world has been loaded"
+    }
+
     // version
-    writeUShort(2u)
+    writeUShort(4u)
 
-    writeInt(boundaries.geometrySizes.size)
-    for ((id, size) in boundaries.geometrySizes) {
+    val ids = boundaries.countryIds
+    require(ids.size <= UShort.MAX_VALUE.toInt() + 1) {
+        "At most 65536 different ids are supported"
+    }
+    writeInt(ids.size)
+    for (i in 0 until ids.size) {
+        val id = ids[i]
         writeUTF(id)
-        writeDouble(size)
+        writeDouble(boundaries.geometrySizes[id] ?: Double.NaN)
     }
     writeInt(boundaries.rasterWidth)
     writeInt(boundaries.raster.size)
-    for (cell in boundaries.raster) {
-        writeCell(cell)
+
+    // cells are written to a buffer first to know at which offset each cell starts
+    val cells = Buffer()
+    val cellOffsets = IntArray(boundaries.raster.size + 1)
+    for ((i, cell) in boundaries.raster.withIndex()) {
+        cells.writeCell(cell, ids)
+        require(cells.size <= Int.MAX_VALUE) { "Data too big" }
+        cellOffsets[i + 1] = cells.size.toInt()
     }
+    for (offset in cellOffsets) {
+        writeInt(offset)
+    }
+    write(cells, cells.size)
 }
 
-private fun Sink.writeCell(cell: CountryBoundariesCell) {
+private fun Sink.writeCell(cell: CountryBoundariesCell, ids: CountryIds) {
     val containingIdsSize = cell.containingIds.size
     require(containingIdsSize <= UByte.MAX_VALUE.toInt()) {
         "At most 255 different areas per cell are supported (try a bigger raster)"
     }
     writeUByte(containingIdsSize.toUByte())
     for (id in cell.containingIds) {
-        writeUTF(id)
+        writeId(id, ids)
     }
 
     val intersectingAreasSize = cell.intersectingAreas.size
@@ -38,40 +58,40 @@ private fun Sink.writeCell(cell: CountryBoundariesCell) {
     }
     writeUByte(intersectingAreasSize.toUByte())
     for (areas in cell.intersectingAreas) {
-        writeAreas(areas)
+        writeAreas(areas, ids)
+    }
+
+    val children = cell.children.orEmpty()
+    writeUByte(children.size.toUByte())
+    for (child in children) {
+        writeCell(child, ids)
     }
 }
 
-private fun Sink.writeAreas(areas: CountryAreas) {
-    writeUTF(areas.id)
-    writePolygons(areas.outer)
-    writePolygons(areas.inner)
+private fun Sink.writeId(id: String, ids: CountryIds) {
+    writeUShort(ids.indexOf(id).toUShort())
 }
 
-private fun Sink.writePolygons(polygons: List<List<Point>>) {
-    val polygonsCount = polygons.size
-    require(polygonsCount <= UByte.MAX_VALUE.toInt()) {
+private fun Sink.writeAreas(areas: CountryAreas, ids: CountryIds) {
+    writeId(areas.id, ids)
+
+    val innerCount = areas.ringCount - areas.outerCount
+    require(areas.outerCount <= UByte.MAX_VALUE.toInt() && innerCount <= UByte.MAX_VALUE.toInt()) {
         "At most 255 different polygons are supported per area (try a bigger raster)"
     }
-    writeUByte(polygons.size.toUByte())
-    for (ring in polygons) {
-        writeRing(ring)
+    writeUByte(areas.outerCount.toUByte())
+    writeUByte(innerCount.toUByte())
+    // first the size of each ring, then one block with the points of all rings
+    for (ring in 0 until areas.ringCount) {
+        writeInt(areas.ringOffsets[ring + 1] - areas.ringOffsets[ring])
     }
-}
-
-private fun Sink.writeRing(points: List<Point>) {
-    writeInt(points.size)
-    for (point in points) {
-        writePoint(point)
+    val start = areas.ringOffsets[0] * 2
+    val end = areas.ringOffsets[areas.ringCount] * 2
+    for (i in start until end) {
+        writeShort(areas.points[i])
     }
 }
 
-private fun Sink.writePoint(point: Point) {
-    writeUShort(point.x)
-    writeUShort(point.y)
-}
-
-
 private fun Sink.writeUTF(string: String) {
     val bytes = string.encodeToByteArray()
     require(bytes.size <= UShort.MAX_VALUE.toInt()) { "ID too long" }
@@ -0,0 +1,42 @@
+package de.westnordost.countryboundaries
+
+import kotlin.test.*
+
+internal class CellGridTest {
+    @Test fun covers_the_same_as_the_areas() {
+        val areas = listOf(
+            CountryAreas("A", listOf(BIG_TRIANGLE), listOf()),
+            CountryAreas("B", listOf(FRAME, ISLAND_IN_HOLE), listOf(FRAME_HOLE)),
+        )
+        val grid = CellGrid(areas)
+
+        for (x in 0..0xffff step 997) {
+            for (y in 0..0xffff step 991) {
+                for (i in areas.indices) {
+                    assertEquals(areas[i].covers(x, y), grid.covers(i, x, y), "at $x,$y")
+                }
+            }
+        }
+    }
+
+    @Test fun covers_at_slot_edges() {
+        val areas = listOf(CountryAreas("A", listOf(FRAME), listOf(FRAME_HOLE)))
+        val grid = CellGrid(areas)
+
+        for (x in listOf(0, 8191, 8192, 16383, 16384, 32767, 32768, 49151, 49152, 0xffff)) {
+            for (y in listOf(0, 8191, 8192, 16383, 16384, 32767, 32768, 49151, 49152, 0xffff)) {
+                assertEquals(areas[0].covers(x, y), grid.covers(0, x, y), "at $x,$y")
+            }
+        }
+    }
+}
+
+private val BIG_TRIANGLE = listOf(p(0, 0), p(0, 0xffff), p(0xffff, 0))
+
+private val FRAME = listOf(p(8192, 8192), p(8192, 57344), p(57344, 57344), p(57344, 8192))
+
+private val FRAME_HOLE =
+    listOf(p(16384, 16384), p(16384, 49152), p(49152, 49152), p(49152, 16384))
+
+private val ISLAND_IN_HOLE =
+    listOf(p(30000, 30000), p(30000, 31000), p(31000, 31000), p(31000, 30000))
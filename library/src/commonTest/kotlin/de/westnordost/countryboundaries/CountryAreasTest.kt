@@ -1,5 +1,10 @@
 package de.westnordost.countryboundaries
 
+import kotlin.math.PI
+import kotlin.math.cos
+import kotlin.math.roundToInt
+import kotlin.math.sin
+import kotlin.random.Random
 import kotlin.test.*
 
 internal class CountryAreasTest {
@@ -27,10 +32,124 @@ internal class CountryAreasTest {
         assertFalse(areas.covers(p(10, 5)))
         assertFalse(areas.covers(p(10, 10)))
     }
+
+    @Test fun covers_only_the_islands() {
+        val islands = CountryAreas("A", listOf(SMALL_SQUARE, FAR_SQUARE), listOf())
+
+        assertTrue(islands.covers(p(5, 5)))
+        assertTrue(islands.covers(p(1001, 1001)))
+        assertFalse(islands.covers(p(500, 500)))
+        assertFalse(islands.covers(p(5, 1001)))
+        assertFalse(islands.covers(p(0, 0)))
+        assertFalse(islands.covers(p(2000, 2000)))
+    }
+
+    @Test fun intersects_rectangle_within() {
+        assertTrue(CountryAreas("A", listOf(BIG_SQUARE), listOf()).intersects(4, 4, 6, 6))
+    }
+
+    @Test fun intersects_rectangle_around() {
+        val areas = CountryAreas("A", listOf(SMALL_SQUARE), listOf())
+
+        assertTrue(areas.intersects(0, 0, 10, 10))
+    }
+
+    @Test fun intersects_rectangle_crossing_edge() {
+        val areas = CountryAreas("A", listOf(BIG_SQUARE), listOf())
+
+        assertTrue(areas.intersects(8, 8, 12, 12))
+        assertTrue(areas.intersects(-2, 4, 12, 6))
+        assertTrue(areas.intersects(10, 10, 12, 12))
+    }
+
+    @Test fun does_not_intersect_rectangle_outside() {
+        val areas = CountryAreas("A", listOf(BIG_SQUARE), listOf())
+
+        assertFalse(areas.intersects(11, 0, 12, 10))
+        assertFalse(areas.intersects(0, 11, 10, 12))
+    }
+
+    @Test fun does_not_intersect_rectangle_in_hole() {
+        val areas = CountryAreas("A", listOf(BIG_SQUARE), listOf(HOLE))
+
+        assertFalse(areas.intersects(3, 3, 7, 7))
+        assertTrue(areas.intersects(1, 1, 7, 7))
+        assertTrue(CountryAreas("A", listOf(BIG_SQUARE, SMALL_SQUARE), listOf(HOLE))
+            .intersects(3, 3, 7, 7))
+    }
+
+    @Test fun does_not_intersect_rectangle_between_islands() {
+        val islands = CountryAreas("A", listOf(SMALL_SQUARE, FAR_SQUARE), listOf())
+
+        assertFalse(islands.intersects(100, 100, 900, 900))
+        assertTrue(islands.intersects(5, 5, 1001, 1001))
+    }
+
+    @Test fun does_not_intersect_rectangle_beside_diagonal_edge() {
+        val triangle = CountryAreas("A", listOf(listOf(p(0, 0), p(10, 10), p(10, 0))), listOf())
+
+        assertFalse(triangle.intersects(0, 6, 4, 10))
+        assertTrue(triangle.intersects(0, 4, 6, 10))
+    }
+
+    @Test fun covers_same_points_in_ring_with_many_vertices() {
+        // a star with 100 spikes, enough for its edges to be bucketed into slabs
+        val star = List(200) { i ->
+            val radius = if (i % 2 == 0) 30000.0 else 10000.0
+            val angle = i * PI / 100
+            val x = 32768 + (radius * cos(angle)).roundToInt()
+            val y = 32768 + (radius * sin(angle)).roundToInt()
+            p(x, y)
+        }
+        val areas = CountryAreas("A", listOf(star), listOf())
+        val random = Random(42)
+        repeat(10000) {
+            val x = random.nextInt(0x10000)
+            val y = random.nextInt(0x10000)
+            assertEquals(isInRing(x, y, star), areas.covers(x, y), "at $x,$y")
+        }
+    }
+
+    @Test fun created_from_packed_rings_is_the_same() {
+        assertEquals(
+            CountryAreas("A", listOf(BIG_SQUARE, SMALL_SQUARE), listOf(HOLE)),
+            CountryAreas.of(
+                "A",
+                listOf(
+                    shortArrayOf(0, 0, 0, 10, 10, 10, 10, 0),
+                    shortArrayOf(4, 4, 4, 6, 6, 6, 6, 4),
+                    shortArrayOf(2, 2, 2, 8, 8, 8, 8, 2),
+                ),
+                outerCount = 2
+            )
+        )
+    }
 }
 
 private val BIG_SQUARE = listOf(p(0, 0), p(0, 10), p(10, 10), p(10, 0))
 
 private val HOLE = listOf(p(2, 2), p(2, 8), p(8, 8), p(8, 2))
 
-private val SMALL_SQUARE = listOf(p(4, 4), p(4, 6), p(6, 6), p(6, 4))
\ No newline at end of file
+private val SMALL_SQUARE = listOf(p(4, 4), p(4, 6), p(6, 6), p(6, 4))
+
+private val FAR_SQUARE = listOf(p(1000, 1000), p(1000, 1002), p(1002, 1002), p(1002, 1000))
+
+/** Winding number point in polygon check that looks at every edge, for comparison */
+private fun isInRing(x: Int, y: Int, ring: List<Point>): Boolean {
+    var wn = 0
+    for (i in ring.indices) {
+        val a = ring[(i + ring.size - 1) % ring.size]
+        val b = ring[i]
+        val ax = a.x.toLong()
+        val ay = a.y.toLong()
+        val bx = b.x.toLong()
+        val by = b.y.toLong()
+        val isLeft = (bx - ax) * (y - ay) - (x - ax) * (by - ay)
+        if (ay <= y) {
+            if (by > y && isLeft > 0) ++wn
+        } else if (by <= y && isLeft < 0) {
+            --wn
+        }
+    }
+    return wn != 0
+}
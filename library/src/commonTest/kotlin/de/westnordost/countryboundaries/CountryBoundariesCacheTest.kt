@@ -0,0 +1,89 @@
+package de.westnordost.countryboundaries
+
+import kotlin.random.Random
+import kotlin.test.*
+
+internal class CountryBoundariesCacheTest {
+    @Test fun capacity_is_rounded_up_to_power_of_two() {
+        assertEquals(1, CountryBoundariesCache(boundaries(), 1).capacity)
+        assertEquals(64, CountryBoundariesCache(boundaries(), 64).capacity)
+        assertEquals(128, CountryBoundariesCache(boundaries(), 65).capacity)
+        assertFailsWith<IllegalArgumentException> { CountryBoundariesCache(boundaries(), 0) }
+    }
+
+    @Test fun repeated_lookups_are_answered_from_cache() {
+        val cache = CountryBoundariesCache(boundaries(), recordStatistics = true)
+
+        assertEquals(listOf("B", "A"), cache.getIds(-170.0, -10.0))
+        assertEquals(0, cache.hitCount)
+        assertEquals(1, cache.missCount)
+
+        assertEquals(listOf("B", "A"), cache.getIds(-170.0, -10.0))
+        assertTrue(cache.isIn(-170.0, -10.0, "B"))
+        assertEquals("B", cache.getSmallestId(-170.0, -10.0))
+        assertEquals(3, cache.hitCount)
+        assertEquals(1, cache.missCount)
+        assertEquals(0.75, cache.hitRate)
+
+        assertEquals(listOf("A"), cache.getIds(-10.0, 80.0))
+        assertEquals(2, cache.missCount)
+
+        cache.resetStatistics()
+        assertEquals(0, cache.hitCount)
+        assertEquals(0, cache.missCount)
+        assertEquals(0.0, cache.hitRate)
+    }
+
+    @Test fun statistics_are_not_recorded_by_default() {
+        val cache = CountryBoundariesCache(boundaries())
+
+        cache.getIds(-170.0, -10.0)
+        cache.getIds(-170.0, -10.0)
+        assertEquals(0, cache.hitCount)
+        assertEquals(0, cache.missCount)
+        assertEquals(0.0, cache.hitRate)
+    }
+
+    @Test fun modifying_returned_ids_does_not_change_later_results() {
+        val cache = CountryBoundariesCache(boundaries())
+
+        val ids = cache.getIds(-170.0, -10.0)
+        try {
+            (ids as MutableList<String>).clear()
+        } catch (e: Exception) {}
+
+        assertEquals(listOf("B", "A"), cache.getIds(-170.0, -10.0))
+    }
+
+    @Test fun positions_in_completely_covered_cells_bypass_cache() {
+        val cache = CountryBoundariesCache(boundaries(), recordStatistics = true)
+
+        assertEquals(listOf("C"), cache.getIds(10.0, 10.0))
+        assertFalse(cache.isInAny(10.0, 10.0, listOf("A", "B")))
+        assertEquals(0, cache.hitCount)
+        assertEquals(0, cache.missCount)
+    }
+
+    @Test fun returns_same_results_as_boundaries() {
+        val boundaries = boundaries()
+        // small capacity so that entries are replaced often
+        val cache = CountryBoundariesCache(boundaries, 4)
+        val random = Random(42)
+        val positions = List(50) {
+            random.nextDouble(-180.0, 0.0) to random.nextDouble(-90.0, 90.0)
+        }
+        repeat(500) {
+            val (longitude, latitude) = positions[random.nextInt(positions.size)]
+            assertEquals(boundaries.getIds(longitude, latitude), cache.getIds(longitude, latitude))
+        }
+    }
+}
+
+private fun boundaries() = CountryBoundaries(
+    listOf(
+        cell(listOf("A"), listOf(CountryAreas("B", listOf(SQUARE), listOf()))),
+        cell(listOf("C"))
+    ), 2, mapOf("A" to 10.0, "B" to 1.0, "C" to 5.0)
+)
+
+private val SQUARE = listOf(p(0, 0), p(0, 0x8000), p(0x8000, 0x8000), p(0x8000, 0))
@@ -61,6 +61,42 @@ internal class CountryBoundariesCellTest {
 			cell(intersecting = listOf(B)).isInAny(p(4, 4), listOf("B"))
 		)
 	}
+
+    @Test fun smallest_id() {
+		val sizes = mapOf("A" to 10.0, "B" to 1.0)
+		val cell = cell(containing = listOf("A"), intersecting = listOf(B))
+		assertEquals("B", cell.smallestIdOf(1, 1, sizes))
+		assertEquals("A", cell.smallestIdOf(4, 4, sizes))
+		assertEquals(
+			"A",
+			cell(containing = listOf("C", "A"), intersecting = listOf(B))
+				.smallestIdOf(1, 1, mapOf("A" to 1.0, "B" to 5.0, "C" to 10.0))
+		)
+	}
+
+    @Test fun no_smallest_id() {
+		assertNull(cell(intersecting = listOf(B)).smallestIdOf(4, 4, emptyMap()))
+	}
+
+    @Test fun indexed_ids_are_sorted_by_size() {
+		val sizes = mapOf("A" to 1.0, "B" to 5.0, "C" to 10.0, "D" to 20.0)
+		val ids = CountryIds.of(sizes, emptyList())
+		val d = CountryAreas("D", B.points, B.ringOffsets, B.outerCount)
+		val cell = IndexedCell(
+			cell(containing = listOf("C", "A"), intersecting = listOf(d, B)),
+			ids
+		)
+		assertContentEquals(intArrayOf(0, 1, 2, 3), cell.getIds(1, 1))
+		assertContentEquals(intArrayOf(0, 2), cell.getIds(4, 4))
+	}
+}
+
+private fun CountryBoundariesCell.smallestIdOf(
+	x: Int, y: Int, geometrySizes: Map<String, Double>
+): String? {
+	val ids = CountryIds.of(geometrySizes, getAllIds())
+	val id = IndexedCell(this, ids).getSmallestId(x, y)
+	return if (id != -1) ids[id] else null
 }
 
 private val B = CountryAreas(
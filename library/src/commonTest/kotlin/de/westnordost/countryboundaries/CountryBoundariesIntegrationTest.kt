@@ -1,5 +1,6 @@
 package de.westnordost.countryboundaries
 
+import kotlinx.io.Buffer
 import kotlinx.io.buffered
 import kotlinx.io.files.Path
 import kotlinx.io.files.SystemFileSystem
@@ -36,6 +37,17 @@ internal class CountryBoundariesIntegrationTest {
         )
     }
 
+    @Test fun exact_intersecting_ids() {
+        val boundaries = load()
+        // around Büsingen
+        assertEquals(
+            setOf("DE", "CH"),
+            boundaries.getExactIntersectingIds(8.69, 47.69, 8.70, 47.70)
+        )
+        // Atlantic ocean off Portugal
+        assertEquals(setOf(), boundaries.getExactIntersectingIds(-20.0, 40.0, -10.0, 45.0))
+    }
+
     @Test fun isInAny() {
         // The given position is in Myanmar and not in any of these countries
         assertFalse(load().isInAny(96.0, 21.0, listOf("BD", "DJ", "IR", "PS")))
@@ -45,6 +57,87 @@ internal class CountryBoundariesIntegrationTest {
         assertTrue(load().isIn(8.6910, 47.6973, "DE"))
     }
 
+    @Test fun smallest_id() {
+        val boundaries = load()
+        assertEquals("US-TX", boundaries.getSmallestId(-97.0, 33.0))
+        assertEquals("BA-SRP", boundaries.getSmallestId(17.0, 45.0))
+    }
+
+    @Test fun regional_loading() {
+        val boundaries = SystemFileSystem
+            .source(Path("src/commonTest/resources","boundaries180x90.ser"))
+            .buffered()
+            .use { CountryBoundaries.deserializeFrom(it, 5.0, 45.0, 20.0, 55.0) }
+
+        assertEquals(load().getIds(8.6910, 47.6973), boundaries.getIds(8.6910, 47.6973))
+        assertEquals(listOf("BA-SRP", "BA"), boundaries.getIds(17.0, 45.0))
+        assertEquals(load().idCount, boundaries.idCount)
+        assertTrue(boundaries.isLoaded(16.0, 45.5))
+        assertFalse(boundaries.isLoaded(-97.0, 33.0))
+        assertFailsWith<IllegalArgumentException> { boundaries.getIds(-97.0, 33.0) }
+        assertFailsWith<IllegalArgumentException> {
+            boundaries.getIntersectingIds(0.0, 40.0, 10.0, 50.0)
+        }
+    }
+
+    @Test fun regional_loading_at_180th_meridian() {
+        val boundaries = SystemFileSystem
+            .source(Path("src/commonTest/resources","boundaries180x90.ser"))
+            .buffered()
+            .use { CountryBoundaries.deserializeFrom(it, 163.0, 50.0, -150.0, 67.0) }
+
+        assertEquals(
+            setOf("RU", "US-AK", "US"),
+            boundaries.getIntersectingIds(163.0, 50.0, -150.0, 67.0)
+        )
+        assertFalse(boundaries.isLoaded(0.0, 60.0))
+    }
+
+    @Test fun regional_loading_of_current_version() {
+        val full = load()
+        val buffer = Buffer()
+        full.serializeTo(buffer)
+        // wraps around the 180th meridian
+        val boundaries = CountryBoundaries.deserializeFrom(buffer, 170.0, 45.0, -160.0, 55.0)
+
+        val width = full.rasterWidth
+        val height = full.raster.size / width
+        val minX = longitudeToCellX(170.0, width)
+        val maxX = longitudeToCellX(-160.0, width)
+        val minY = latitudeToCellY(55.0, height)
+        val maxY = latitudeToCellY(45.0, height)
+        var loadedCount = 0
+        for (i in full.raster.indices) {
+            val x = i % width
+            val y = i / width
+            if ((x >= minX || x <= maxX) && y in minY..maxY) {
+                assertEquals(full.raster[i], boundaries.raster[i])
+                loadedCount++
+            } else {
+                assertSame(CountryBoundariesCell.NOT_LOADED, boundaries.raster[i])
+            }
+        }
+        assertEquals((width - minX + maxX + 1) * (maxY - minY + 1), loadedCount)
+
+        assertEquals(full.idCount, boundaries.idCount)
+        assertEquals(full.getIds(175.0, 50.0), boundaries.getIds(175.0, 50.0))
+        assertEquals(
+            full.getIntersectingIds(170.0, 45.0, -160.0, 55.0),
+            boundaries.getIntersectingIds(170.0, 45.0, -160.0, 55.0)
+        )
+    }
+
+    @Test fun serializing_regionally_loaded_boundaries_fails() {
+        val boundaries = SystemFileSystem
+            .source(Path("src/commonTest/resources","boundaries180x90.ser"))
+            .buffered()
+            .use { CountryBoundaries.deserializeFrom(it, 5.0, 45.0, 20.0, 55.0) }
+
+        val buffer = Buffer()
+        assertFailsWith<IllegalArgumentException> { boundaries.serializeTo(buffer) }
+        assertTrue(buffer.exhausted())
+    }
+
     @Test fun ids_sorts_by_size_ascending() {
         assertEquals(
             listOf("US-TX", "US"),
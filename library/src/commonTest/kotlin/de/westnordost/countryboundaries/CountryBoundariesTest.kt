@@ -3,6 +3,7 @@ package de.westnordost.countryboundaries
 import kotlin.Double.Companion.NEGATIVE_INFINITY
 import kotlin.Double.Companion.NaN
 import kotlin.Double.Companion.POSITIVE_INFINITY
+import kotlin.random.Random
 import kotlin.test.*
 
 internal class CountryBoundariesTest {
@@ -58,6 +59,214 @@ internal class CountryBoundariesTest {
         )
     }
 
+    @Test fun ids_of_cells_without_geometry_are_shared() {
+        val boundaries = CountryBoundaries(
+            listOf(
+                cell(listOf("A", "B")),
+                cell(listOf("B"), listOf(CountryAreas("C", listOf(SQUARE), listOf()))),
+            ), 2, mapOf("A" to 2.0, "B" to 1.0)
+        )
+
+        assertEquals(listOf("B", "A"), boundaries.getIds(-170.0, -10.0))
+        assertSame(boundaries.getIds(-170.0, -10.0), boundaries.getIds(-10.0, 80.0))
+        assertEquals("B", boundaries.getSmallestId(-10.0, 80.0))
+        assertTrue(boundaries.isInAny(-10.0, 80.0, listOf("A")))
+        assertFalse(boundaries.isInAny(-10.0, 80.0, listOf("C")))
+
+        assertEquals(listOf("C", "B"), boundaries.getIds(10.0, -80.0))
+        assertEquals(listOf("B"), boundaries.getIds(170.0, 80.0))
+        assertTrue(boundaries.isInAny(10.0, -80.0, listOf("C")))
+        assertFalse(boundaries.isInAny(170.0, 80.0, listOf("C")))
+    }
+
+    @Test fun ids_of_same_size_are_ordered_by_id() {
+        val boundaries = CountryBoundaries(
+            listOf(
+                cell(listOf("C", "B", "A")),
+                cell(listOf("D"), listOf(CountryAreas("E", listOf(SQUARE), listOf()))),
+            ), 2, mapOf("A" to 1.0, "B" to 1.0, "C" to 0.5)
+        )
+
+        assertEquals(listOf("C", "A", "B"), boundaries.getIds(-170.0, -10.0))
+        // ids without size are the smallest
+        assertEquals(listOf("D", "E"), boundaries.getIds(10.0, -80.0))
+    }
+
+    @Test fun modifying_returned_ids_does_not_change_later_results() {
+        val boundaries = CountryBoundaries(
+            listOf(cell(listOf("A", "B")), cell(listOf("B"))), 2, mapOf("A" to 2.0, "B" to 1.0)
+        )
+
+        for (ids in listOf(boundaries.getIds(-170.0, -10.0), boundaries.getIds(10.0, 10.0))) {
+            try {
+                (ids as MutableList<String>).add("C")
+            } catch (e: Exception) {}
+            try {
+                (ids as MutableList<String>).clear()
+            } catch (e: Exception) {}
+        }
+
+        assertEquals(listOf("B", "A"), boundaries.getIds(-170.0, -10.0))
+        assertEquals(listOf("B"), boundaries.getIds(10.0, 10.0))
+        val batch = arrayOfNulls<List<String>>(1)
+        boundaries.getIds(doubleArrayOf(-10.0), doubleArrayOf(80.0), batch)
+        assertEquals(listOf("B", "A"), batch[0])
+    }
+
+    @Test fun batch_ids_are_the_same_as_single_ids() {
+        val boundaries = CountryBoundaries(
+            listOf(
+                cell(listOf("A")),
+                cell(listOf("B"), listOf(CountryAreas("C", listOf(SQUARE), listOf()))),
+                cell(listOf("C")),
+                cell(listOf("D", "E"))
+            ), 2, mapOf("D" to 10.0, "E" to 5.0)
+        )
+        val longitudes = doubleArrayOf(0.0, -90.0, 0.5, 180.0, 90.0, 0.0, 45.0)
+        val latitudes = doubleArrayOf(0.0, 45.0, 0.5, -45.0, -45.0, 89.0, 45.0)
+        val result = arrayOfNulls<List<String>>(longitudes.size)
+
+        boundaries.getIds(longitudes, latitudes, result)
+
+        for (i in longitudes.indices) {
+            assertEquals(boundaries.getIds(longitudes[i], latitudes[i]), result[i])
+        }
+    }
+
+    @Test fun batch_ids_with_arrays_of_different_sizes_throws() {
+        val b = emptyBoundaries()
+        val e = IllegalArgumentException::class
+
+        assertFailsWith(e) { b.getIds(DoubleArray(2), DoubleArray(1), arrayOfNulls(2)) }
+        assertFailsWith(e) { b.getIds(DoubleArray(2), DoubleArray(2), arrayOfNulls(1)) }
+        assertFailsWith(e) { b.getIds(doubleArrayOf(0.0), doubleArrayOf(NaN), arrayOfNulls(1)) }
+    }
+
+    @Test fun ids_are_indexed_by_size_ascending() {
+        val boundaries = CountryBoundaries(
+            raster = listOf(
+                cell(listOf("D", "B"), listOf(CountryAreas("C", listOf(SQUARE), listOf())))
+            ),
+            rasterWidth = 1,
+            geometrySizes = mapOf("A" to 10.0, "B" to 15.0, "C" to 100.0, "D" to 800.0))
+
+        assertEquals(4, boundaries.idCount)
+        assertEquals(listOf("A", "B", "C", "D"), (0 until 4).map { boundaries.nameOf(it) })
+        assertEquals(2, boundaries.idOf("C"))
+        assertEquals(-1, boundaries.idOf("X"))
+
+        assertContentEquals(intArrayOf(1, 2, 3), boundaries.getIdIndices(-170.0, -80.0))
+        assertContentEquals(intArrayOf(1, 3), boundaries.getIdIndices(170.0, 80.0))
+    }
+
+    @Test fun is_in_any_id_set() {
+        val boundaries = CountryBoundaries(
+            raster = listOf(
+                cell(listOf("A"), listOf(CountryAreas("B", listOf(SQUARE), listOf())))
+            ),
+            rasterWidth = 1,
+            geometrySizes = emptyMap())
+
+        assertTrue(boundaries.isInAny(-170.0, -80.0, boundaries.idSetOf(listOf("B", "X"))))
+        assertFalse(boundaries.isInAny(170.0, 80.0, boundaries.idSetOf(listOf("B"))))
+        assertTrue(boundaries.isInAny(170.0, 80.0, boundaries.idSetOf(listOf("A"))))
+        assertFalse(boundaries.isInAny(170.0, 80.0, boundaries.newIdSet()))
+    }
+
+    @Test fun containing_and_intersecting_id_sets() {
+        val boundaries = CountryBoundaries(
+            listOf(
+                cell(listOf("A", "B")),
+                cell(listOf("B"), listOf(CountryAreas("C", listOf(SQUARE), listOf()))),
+            ), 2, emptyMap()
+        )
+
+        assertEquals(
+            boundaries.idSetOf(listOf("B")),
+            boundaries.getContainingIdSet(-10.0, -10.0, 10.0, 10.0)
+        )
+        assertEquals(
+            boundaries.idSetOf(listOf("A", "B", "C")),
+            boundaries.getIntersectingIdSet(-10.0, -10.0, 10.0, 10.0)
+        )
+    }
+
+    @Test fun id_sets_are_written_into_given_result() {
+        val boundaries = CountryBoundaries(
+            listOf(
+                cell(listOf("A", "B")),
+                cell(listOf("B"), listOf(CountryAreas("C", listOf(SQUARE), listOf()))),
+            ), 2, emptyMap()
+        )
+        val result = boundaries.newIdSet()
+
+        boundaries.getIntersectingIdSet(-10.0, -10.0, 10.0, 10.0, result)
+        assertEquals(boundaries.idSetOf(listOf("A", "B", "C")), result)
+
+        boundaries.getContainingIdSet(-10.0, -10.0, 10.0, 10.0, result)
+        assertEquals(boundaries.idSetOf(listOf("B")), result)
+
+        boundaries.getExactIntersectingIdSet(-100.0, 10.0, -80.0, 20.0, result)
+        assertEquals(boundaries.idSetOf(listOf("A", "B")), result)
+
+        assertFailsWith<IllegalArgumentException> {
+            boundaries.getIntersectingIdSet(-10.0, -10.0, 10.0, 10.0, CountryIdSet(100))
+        }
+    }
+
+    @Test fun descends_into_quadrants_of_split_cell() {
+        val boundaries = CountryBoundaries(
+            listOf(
+                CountryBoundariesCell(
+                    emptyList(), emptyList(), listOf(
+                        cell(listOf("A")),
+                        cell(listOf("B")),
+                        cell(intersecting = listOf(CountryAreas("C", listOf(SQUARE), listOf()))),
+                        CountryBoundariesCell(
+                            emptyList(), emptyList(), listOf(
+                                cell(listOf("D")),
+                                cell(listOf("E")),
+                                cell(listOf("F")),
+                                cell(listOf("G", "H")),
+                            )
+                        ),
+                    )
+                )
+            ), 1, mapOf("G" to 1.0, "H" to 2.0)
+        )
+
+        assertEquals(listOf("A"), boundaries.getIds(-90.0, -45.0))
+        assertEquals(listOf("B"), boundaries.getIds(90.0, -45.0))
+        assertEquals(listOf("C"), boundaries.getIds(-135.0, 22.0))
+        assertEquals(listOf(), boundaries.getIds(-45.0, 67.0))
+        assertEquals(listOf("D"), boundaries.getIds(45.0, 22.0))
+        assertEquals(listOf("E"), boundaries.getIds(135.0, 22.0))
+        assertEquals(listOf("F"), boundaries.getIds(45.0, 67.0))
+        assertEquals(listOf("G", "H"), boundaries.getIds(135.0, 67.0))
+        assertEquals("G", boundaries.getSmallestId(135.0, 67.0))
+
+        assertTrue(boundaries.isIn(-135.0, 22.0, "C"))
+        assertFalse(boundaries.isIn(-45.0, 67.0, "C"))
+        assertTrue(boundaries.isInAny(45.0, 22.0, boundaries.idSetOf(listOf("D"))))
+        assertContentEquals(
+            intArrayOf(boundaries.idOf("E")), boundaries.getIdIndices(135.0, 22.0)
+        )
+
+        assertEquals(
+            setOf("A", "B", "C", "D", "E", "F", "G", "H"),
+            boundaries.getIntersectingIds(-10.0, -10.0, 10.0, 10.0)
+        )
+        assertEquals(setOf(), boundaries.getContainingIds(-10.0, -10.0, 10.0, 10.0))
+
+        val longitudes = doubleArrayOf(-90.0, 90.0, -135.0, -45.0, 45.0, 135.0, 45.0, 135.0)
+        val latitudes = doubleArrayOf(-45.0, -45.0, 22.0, 67.0, 22.0, 22.0, 67.0, 67.0)
+        val result = arrayOfNulls<List<String>>(longitudes.size)
+        boundaries.getIds(longitudes, latitudes, result)
+        for (i in longitudes.indices) {
+            assertEquals(boundaries.getIds(longitudes[i], latitudes[i]), result[i])
+        }
+    }
+
     @Test fun intersecting_ids_in_bbox_is_merged_correctly() {
         val boundaries = CountryBoundaries(
             listOf(
@@ -144,6 +353,129 @@ internal class CountryBoundariesTest {
         assertTrue(boundaries.getContainingIds(-10.0, -10.0, 10.0, 10.0).isEmpty())
     }
 
+    @Test fun ids_in_bbox_are_the_same_as_of_each_cell_in_bbox() {
+        // odd raster size so that the blocks at the right and bottom edge are incomplete
+        val width = 37
+        val height = 19
+        val ids = listOf("A", "B", "C", "D", "E")
+        val random = Random(42)
+        val cells = List(width * height) {
+            val containing = ids.filter { random.nextInt(4) != 0 }
+            val intersecting = ids
+                .filter { it !in containing && random.nextInt(3) == 0 }
+                .map { CountryAreas(it, listOf(SQUARE), listOf()) }
+            cell(containing, intersecting)
+        }
+        val boundaries = CountryBoundaries(cells, width, emptyMap())
+
+        repeat(500) {
+            val x0 = random.nextInt(width)
+            val x1 = random.nextInt(width)
+            val y0 = random.nextInt(height)
+            val y1 = random.nextInt(height)
+            val minY = minOf(y0, y1)
+            val maxY = maxOf(y0, y1)
+            // the bbox may wrap around the 180th longitude
+            val xs = if (x0 <= x1) (x0..x1).toList() else (x0 until width) + (0..x1)
+
+            val containing = ids.toMutableSet()
+            val intersecting = mutableSetOf<String>()
+            for (x in xs) {
+                for (y in minY..maxY) {
+                    val cell = cells[y * width + x]
+                    containing.retainAll(cell.containingIds.toSet())
+                    intersecting.addAll(cell.getAllIds())
+                }
+            }
+
+            // the centers of the cells at the corners of the bbox
+            val minLon = -180.0 + (x0 + 0.5) * 360.0 / width
+            val maxLon = -180.0 + (x1 + 0.5) * 360.0 / width
+            val minLat = 90.0 - (maxY + 0.5) * 180.0 / height
+            val maxLat = 90.0 - (minY + 0.5) * 180.0 / height
+            assertEquals(
+                containing,
+                boundaries.getContainingIds(minLon, minLat, maxLon, maxLat)
+            )
+            assertEquals(
+                intersecting,
+                boundaries.getIntersectingIds(minLon, minLat, maxLon, maxLat)
+            )
+        }
+    }
+
+    @Test fun exact_intersecting_ids_in_bbox() {
+        val boundaries = CountryBoundaries(
+            listOf(
+                cell(listOf("A"), listOf(CountryAreas("B", listOf(SQUARE), listOf()))),
+                cell(listOf("C")),
+                cell(),
+                cell(listOf("D"))
+            ), 2, emptyMap()
+        )
+
+        // B covers the south-west quarter of the north-west cell
+        assertEquals(setOf("A", "B"), boundaries.getIntersectingIds(-80.0, 50.0, -10.0, 80.0))
+        assertEquals(setOf("A"), boundaries.getExactIntersectingIds(-80.0, 50.0, -10.0, 80.0))
+        assertEquals(
+            setOf("A", "B"),
+            boundaries.getExactIntersectingIds(-100.0, 40.0, -80.0, 50.0)
+        )
+        assertEquals(setOf("A", "C"), boundaries.getExactIntersectingIds(-80.0, 50.0, 10.0, 80.0))
+        assertEquals(
+            setOf("A", "C", "D"),
+            boundaries.getExactIntersectingIds(-80.0, -10.0, 10.0, 80.0)
+        )
+        assertEquals(
+            setOf("A", "B", "C", "D"),
+            boundaries.getExactIntersectingIds(-170.0, -80.0, 170.0, 80.0)
+        )
+    }
+
+    @Test fun exact_intersecting_ids_in_bbox_wraps_longitude_correctly() {
+        val boundaries = CountryBoundaries(
+            listOf(
+                cell(listOf("A"), listOf(CountryAreas("B", listOf(SQUARE), listOf()))),
+                cell(listOf("C")),
+                cell(listOf("D"))
+            ), 3, emptyMap()
+        )
+
+        assertEquals(setOf("A", "D"), boundaries.getExactIntersectingIds(170.0, 60.0, -170.0, 80.0))
+        assertEquals(
+            setOf("A", "B", "D"),
+            boundaries.getExactIntersectingIds(170.0, 0.0, -170.0, 10.0)
+        )
+    }
+
+    @Test fun exact_intersecting_ids_in_bbox_in_split_cell() {
+        val boundaries = CountryBoundaries(
+            listOf(
+                CountryBoundariesCell(
+                    emptyList(), emptyList(),
+                    listOf(
+                        cell(listOf("A")),
+                        cell(listOf("B")),
+                        cell(listOf("C"), listOf(CountryAreas("D", listOf(SQUARE), listOf()))),
+                        cell(listOf("E"))
+                    )
+                )
+            ), 1, emptyMap()
+        )
+
+        assertEquals(setOf("A"), boundaries.getExactIntersectingIds(-170.0, -80.0, -10.0, -10.0))
+        assertEquals(setOf("A", "B"), boundaries.getExactIntersectingIds(-10.0, -80.0, 10.0, -10.0))
+        assertEquals(setOf("C"), boundaries.getExactIntersectingIds(-80.0, 50.0, -10.0, 80.0))
+        assertEquals(
+            setOf("C", "D"),
+            boundaries.getExactIntersectingIds(-170.0, 10.0, -100.0, 40.0)
+        )
+        assertEquals(
+            setOf("A", "B", "C", "E"),
+            boundaries.getExactIntersectingIds(-10.0, -10.0, 10.0, 10.0)
+        )
+    }
+
     @Test fun latitude_out_of_bounds_throws() {
         val b = emptyBoundaries()
         val e = IllegalArgumentException::class
@@ -194,6 +526,8 @@ internal class CountryBoundariesTest {
     }
 }
 
+private val SQUARE = listOf(p(0, 0), p(0, 0x8000), p(0x8000, 0x8000), p(0x8000, 0))
+
 private fun emptyBoundaries(): CountryBoundaries {
     return CountryBoundaries(listOf(cell()), 1, emptyMap())
 }
@@ -0,0 +1,94 @@
+package de.westnordost.countryboundaries
+
+import kotlin.test.*
+
+internal class CountryIdSetTest {
+    @Test fun add_and_remove() {
+        val set = CountryIdSet(130)
+        assertTrue(set.isEmpty())
+
+        set.add(0)
+        set.add(64)
+        set.add(129)
+        assertEquals(3, set.size)
+        assertTrue(0 in set)
+        assertTrue(64 in set)
+        assertTrue(129 in set)
+        assertFalse(1 in set)
+        assertFalse(-1 in set)
+        assertFalse(1000 in set)
+
+        set.remove(64)
+        assertFalse(64 in set)
+        assertEquals(2, set.size)
+
+        set.clear()
+        assertTrue(set.isEmpty())
+    }
+
+    @Test fun add_invalid_index_fails() {
+        val set = CountryIdSet(130)
+        // within the last word, but not a valid index
+        assertFailsWith<IndexOutOfBoundsException> { set.add(130) }
+        assertFailsWith<IndexOutOfBoundsException> { set.add(191) }
+        assertFailsWith<IndexOutOfBoundsException> { set.add(-1) }
+        assertTrue(set.isEmpty())
+        assertEquals(-1, set.nextIndex(0))
+    }
+
+    @Test fun iterate() {
+        val set = CountryIdSet(200)
+        set.add(3)
+        set.add(63)
+        set.add(64)
+        set.add(199)
+
+        assertEquals(3, set.nextIndex(0))
+        assertEquals(63, set.nextIndex(4))
+        assertEquals(64, set.nextIndex(64))
+        assertEquals(-1, set.nextIndex(200))
+        assertContentEquals(intArrayOf(3, 63, 64, 199), set.toIntArray())
+    }
+
+    @Test fun set_operations() {
+        val a = CountryIdSet(100)
+        a.add(1)
+        a.add(70)
+        val b = CountryIdSet(100)
+        b.add(70)
+        b.add(80)
+
+        val union = CountryIdSet(100)
+        union.addAll(a)
+        union.addAll(b)
+        assertContentEquals(intArrayOf(1, 70, 80), union.toIntArray())
+
+        a.retainAll(b)
+        assertContentEquals(intArrayOf(70), a.toIntArray())
+    }
+
+    @Test fun fill() {
+        val set = CountryIdSet(130)
+        set.fill(65)
+        assertEquals(65, set.size)
+        assertTrue(64 in set)
+        assertFalse(65 in set)
+
+        set.fill(130)
+        assertEquals(130, set.size)
+    }
+
+    @Test fun names() {
+        val set = CountryIdSet(3)
+        set.add(0)
+        set.add(2)
+        val names = CountryIdSetNames(set, CountryIds(arrayOf("A", "B", "C")))
+
+        assertEquals(setOf("A", "C"), names)
+        assertEquals(2, names.size)
+        assertTrue("C" in names)
+        assertFalse("B" in names)
+        assertFalse("X" in names)
+        assertEquals(listOf("A", "C"), names.toList())
+    }
+}
@@ -0,0 +1,39 @@
+package de.westnordost.countryboundaries
+
+import kotlin.test.*
+
+internal class LazyRasterTest {
+
+    @Test fun creates_each_cell_only_once() {
+        val created = mutableListOf<Int>()
+        val raster = LazyRaster(4) { created.add(it); "cell $it" }
+
+        assertEquals("cell 2", raster[2])
+        assertEquals("cell 2", raster[2])
+        assertEquals("cell 0", raster[0])
+        assertEquals(listOf("cell 0", "cell 1", "cell 2", "cell 3"), raster.toList())
+        assertEquals(listOf(2, 0, 1, 3), created)
+    }
+
+    @Test fun bounded_keeps_at_most_capacity_cells() {
+        val created = mutableListOf<Int>()
+        val raster = LazyRaster(6, capacity = 2) { created.add(it); "cell $it" }
+
+        assertEquals("cell 0", raster[0])
+        assertEquals("cell 1", raster[1])
+        assertEquals("cell 0", raster[0])
+        assertEquals(listOf(0, 1), created)
+
+        // replaces cell 0, which shares its slot
+        assertEquals("cell 2", raster[2])
+        assertEquals("cell 1", raster[1])
+        assertEquals("cell 0", raster[0])
+        assertEquals(listOf(0, 1, 2, 0), created)
+    }
+
+    @Test fun get_invalid_index_fails() {
+        val raster = LazyRaster(6, capacity = 2) { "cell $it" }
+        assertFailsWith<IndexOutOfBoundsException> { raster[6] }
+        assertFailsWith<IndexOutOfBoundsException> { raster[-1] }
+    }
+}
@@ -1,10 +1,14 @@
 package de.westnordost.countryboundaries
 
 import kotlinx.io.Buffer
+import kotlinx.io.Sink
 import kotlinx.io.buffered
 import kotlinx.io.files.Path
 import kotlinx.io.files.SystemFileSystem
+import kotlinx.io.readByteArray
+import kotlinx.io.writeDouble
 import kotlin.test.Test
+import kotlin.test.assertContentEquals
 import kotlin.test.assertEquals
 
 
@@ -31,6 +35,15 @@ internal class SerializationTest {
                         CountryAreas("C", listOf(B, A), listOf(Bh))
                     )
                 ),
+                CountryBoundariesCell(
+                    emptyList(), emptyList(), listOf(
+                        cell(containing = listOf("A")),
+                        cell(intersecting = listOf(CountryAreas("B", listOf(B), listOf(Bh)))),
+                        cell(),
+                        cell(containing = listOf("B", "C")),
+                    )
+                ),
+                cell(),
             ),
             rasterWidth = 2,
             geometrySizes = sizes
@@ -46,6 +59,195 @@ internal class SerializationTest {
         assertEquals(boundaries.raster, index2.raster)
     }
 
+    @Test fun lazy_deserialization_works() {
+        val bytes = SystemFileSystem
+            .source(Path("src/commonTest/resources","boundaries180x90.ser"))
+            .buffered()
+            .use { it.readByteArray() }
+        val boundaries = Buffer().also { it.write(bytes) }.let {
+            CountryBoundaries.deserializeFrom(it)
+        }
+
+        // older version of the format
+        val lazyBoundaries = Buffer().also { it.write(bytes) }.let {
+            CountryBoundaries.deserializeLazilyFrom(it)
+        }
+        assertEquals(boundaries.getIds(-97.0, 33.0), lazyBoundaries.getIds(-97.0, 33.0))
+        assertEquals(boundaries, lazyBoundaries)
+
+        // current version of the format
+        val buffer = Buffer()
+        boundaries.serializeTo(buffer)
+        val lazyBoundaries2 = CountryBoundaries.deserializeLazilyFrom(buffer)
+        assertEquals(boundaries.getIds(-97.0, 33.0), lazyBoundaries2.getIds(-97.0, 33.0))
+        assertEquals(boundaries, lazyBoundaries2)
+    }
+
+    @Test fun reading_older_version_works() {
+        val boundaries = CountryBoundaries(
+            raster = listOf(
+                cell(containing = listOf("A")),
+                cell(intersecting = listOf(CountryAreas("B", listOf(SQUARE), listOf(HOLE)))),
+            ),
+            rasterWidth = 2,
+            geometrySizes = mapOf("A" to 1.0, "B" to 2.0)
+        )
+
+        val buffer = Buffer()
+        // version 2 of the format, written by hand
+        buffer.writeShort(2)
+        buffer.writeInt(2)
+        buffer.writeUTF("A")
+        buffer.writeDouble(1.0)
+        buffer.writeUTF("B")
+        buffer.writeDouble(2.0)
+        buffer.writeInt(2)
+        buffer.writeInt(2)
+        // first cell
+        buffer.writeByte(1)
+        buffer.writeUTF("A")
+        buffer.writeByte(0)
+        // second cell
+        buffer.writeByte(0)
+        buffer.writeByte(1)
+        buffer.writeUTF("B")
+        buffer.writeByte(1)
+        buffer.writeRing(SQUARE)
+        buffer.writeByte(1)
+        buffer.writeRing(HOLE)
+
+        assertEquals(boundaries, CountryBoundaries.deserializeFrom(buffer))
+    }
+
+    @Test fun writing_and_reading_current_version_works() {
+        val boundaries = CountryBoundaries(
+            raster = listOf(
+                cell(containing = listOf("A")),
+                CountryBoundariesCell(
+                    emptyList(), emptyList(), listOf(
+                        cell(containing = listOf("B")),
+                        cell(intersecting = listOf(
+                            CountryAreas("C", listOf(SQUARE), listOf(HOLE))
+                        )),
+                        cell(),
+                        cell(),
+                    )
+                ),
+            ),
+            rasterWidth = 2,
+            geometrySizes = mapOf("A" to 2.0, "B" to 1.0)
+        )
+
+        val buffer = Buffer()
+        // version 4 of the format, written by hand
+        buffer.writeShort(4)
+        // id table, ordered by size ascending. C has no size
+        buffer.writeInt(3)
+        buffer.writeUTF("C")
+        buffer.writeDouble(Double.NaN)
+        buffer.writeUTF("B")
+        buffer.writeDouble(1.0)
+        buffer.writeUTF("A")
+        buffer.writeDouble(2.0)
+        buffer.writeInt(2)
+        buffer.writeInt(2)
+        // cell offsets, relative to the first cell, and the end of the last cell
+        buffer.writeInt(0)
+        buffer.writeInt(5)
+        buffer.writeInt(66)
+        // first cell: containing A, no areas, no quadrants
+        buffer.writeByte(1)
+        buffer.writeShort(2)
+        buffer.writeByte(0)
+        buffer.writeByte(0)
+        // second cell: split into quadrants
+        buffer.writeByte(0)
+        buffer.writeByte(0)
+        buffer.writeByte(4)
+        // south-west: containing B
+        buffer.writeByte(1)
+        buffer.writeShort(1)
+        buffer.writeByte(0)
+        buffer.writeByte(0)
+        // south-east: intersecting C with one outer and one inner ring
+        buffer.writeByte(0)
+        buffer.writeByte(1)
+        buffer.writeShort(0)
+        buffer.writeByte(1)
+        buffer.writeByte(1)
+        buffer.writeInt(SQUARE.size)
+        buffer.writeInt(HOLE.size)
+        buffer.writePoints(SQUARE)
+        buffer.writePoints(HOLE)
+        buffer.writeByte(0)
+        // north-west and north-east: empty
+        repeat(2) {
+            buffer.writeByte(0)
+            buffer.writeByte(0)
+            buffer.writeByte(0)
+        }
+        val bytes = buffer.readByteArray()
+
+        val written = Buffer()
+        boundaries.serializeTo(written)
+        assertContentEquals(bytes, written.readByteArray())
+
+        val read = CountryBoundaries.deserializeFrom(Buffer().also { it.write(bytes) })
+        assertEquals(boundaries, read)
+    }
+
+    @Test fun reading_version_3_works() {
+        val boundaries = CountryBoundaries(
+            raster = listOf(
+                cell(containing = listOf("A")),
+                cell(
+                    containing = listOf("B"),
+                    intersecting = listOf(CountryAreas("C", listOf(SQUARE), listOf(HOLE)))
+                ),
+            ),
+            rasterWidth = 2,
+            geometrySizes = mapOf("A" to 2.0, "B" to 1.0)
+        )
+
+        val buffer = Buffer()
+        // version 3 of the format, written by hand. Like version 4, but cells cannot be split
+        buffer.writeShort(3)
+        buffer.writeInt(3)
+        buffer.writeUTF("C")
+        buffer.writeDouble(Double.NaN)
+        buffer.writeUTF("B")
+        buffer.writeDouble(1.0)
+        buffer.writeUTF("A")
+        buffer.writeDouble(2.0)
+        buffer.writeInt(2)
+        buffer.writeInt(2)
+        buffer.writeInt(0)
+        buffer.writeInt(4)
+        buffer.writeInt(52)
+        // first cell
+        buffer.writeByte(1)
+        buffer.writeShort(2)
+        buffer.writeByte(0)
+        // second cell
+        buffer.writeByte(1)
+        buffer.writeShort(1)
+        buffer.writeByte(1)
+        buffer.writeShort(0)
+        buffer.writeByte(1)
+        buffer.writeByte(1)
+        buffer.writeInt(SQUARE.size)
+        buffer.writeInt(HOLE.size)
+        buffer.writePoints(SQUARE)
+        buffer.writePoints(HOLE)
+        val bytes = buffer.readByteArray()
+
+        val read = CountryBoundaries.deserializeFrom(Buffer().also { it.write(bytes) })
+        assertEquals(boundaries, read)
+        val lazyBoundaries =
+            CountryBoundaries.deserializeLazilyFrom(Buffer().also { it.write(bytes) })
+        assertEquals(boundaries, lazyBoundaries)
+    }
+
     @Test fun serialization_to_and_from_file_of_real_data_works() {
         // get the data first...
         val boundaries = SystemFileSystem
@@ -73,3 +275,23 @@ internal class SerializationTest {
     }
 }
 
+private val SQUARE = listOf(p(0, 0), p(0, 3), p(3, 3), p(3, 0))
+private val HOLE = listOf(p(1, 1), p(2, 1), p(2, 2), p(1, 2))
+
+private fun Sink.writeUTF(string: String) {
+    val bytes = string.encodeToByteArray()
+    writeShort(bytes.size.toShort())
+    write(bytes)
+}
+
+private fun Sink.writeRing(ring: List<Point>) {
+    writeInt(ring.size)
+    writePoints(ring)
+}
+
+private fun Sink.writePoints(ring: List<Point>) {
+    for (point in ring) {
+        writeShort(point.x.toShort())
+        writeShort(point.y.toShort())
+    }
+}
@@ -5,8 +5,11 @@ import kotlinx.io.IOException
 import kotlinx.io.asSink
 import kotlinx.io.asSource
 import kotlinx.io.buffered
+import java.io.File
 import java.io.InputStream
 import java.io.OutputStream
+import java.nio.channels.FileChannel
+import java.nio.file.StandardOpenOption
 import kotlin.jvm.Throws
 
 // Java API with inputstream and outputstream
@@ -16,6 +19,57 @@ import kotlin.jvm.Throws
 public fun deserializeFrom(inputStream: InputStream): CountryBoundaries =
     CountryBoundaries.deserializeFrom(inputStream.asSource().buffered())
 
+/**
+ * Create a new CountryBoundaries by deserializing from the given input stream only the data for
+ * the given bounding box, see [CountryBoundaries.Companion.deserializeFrom]
+ */
+@Throws(IOException::class)
+public fun deserializeFrom(
+    inputStream: InputStream,
+    minLongitude: Double, minLatitude: Double, maxLongitude: Double, maxLatitude: Double
+): CountryBoundaries = CountryBoundaries.deserializeFrom(
+    inputStream.asSource().buffered(), minLongitude, minLatitude, maxLongitude, maxLatitude
+)
+
+/**
+ * Create a new CountryBoundaries by deserializing from the given input stream lazily, see
+ * [CountryBoundaries.Companion.deserializeLazilyFrom]
+ */
+@Throws(IOException::class)
+public fun deserializeLazilyFrom(inputStream: InputStream): CountryBoundaries =
+    CountryBoundaries.deserializeLazilyFrom(inputStream.asSource().buffered())
+
+/**
+ * Create a new CountryBoundaries by memory-mapping the given file. Contrary to [deserializeFrom],
+ * the cells of the raster are only read from the mapped file when they are first accessed, so
+ * only the part of the data that is actually queried ends up on the heap. The operating system
+ * may share the pages of the mapped file between processes.
+ *
+ * Loading is only almost instant for files in format version 3 or later, which list where each
+ * cell starts. Files in format version 2, like the ones in `/data/`, are scanned through once
+ * completely when loading to find that out. Generate such a file anew to avoid that.
+ *
+ * Cells that have been read are kept on the heap, but at most [cellCacheSize] of them: When
+ * positions all over the world are queried, cells are dropped again and read anew from the mapped
+ * file when they are accessed the next time. So the heap usage stays bounded, at the expense of
+ * decoding cells more than once.
+ *
+ * @param cellCacheSize maximum number of cells of the raster that are kept on the heap
+ */
+@JvmOverloads
+@Throws(IOException::class)
+public fun deserializeMappedFrom(
+    file: File,
+    cellCacheSize: Int = DEFAULT_MAPPED_CELL_CACHE_SIZE
+): CountryBoundaries {
+    require(cellCacheSize > 0) { "cellCacheSize must be positive" }
+    return FileChannel.open(file.toPath(), StandardOpenOption.READ).use { channel ->
+        channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+    }.readMappedCountryBoundaries(cellCacheSize)
+}
+
+/** Default number of cells kept on the heap by [deserializeMappedFrom], e.g. 64x64 cells */
+private const val DEFAULT_MAPPED_CELL_CACHE_SIZE = 4096
 
 /** Serialize this CountryBoundaries to the given output stream */
 @Throws(IOException::class)
@@ -1,3 +1,67 @@
 package de.westnordost.countryboundaries
 
-internal actual fun String.interned(): String = intern()
\ No newline at end of file
+import kotlinx.io.Buffer
+import kotlinx.io.RawSource
+import kotlinx.io.buffered
+import kotlinx.io.transferFrom
+import java.nio.ByteBuffer
+
+internal actual fun String.interned(): String = intern()
+
+/**
+ * Read the CountryBoundaries from this (memory-mapped) buffer. Only the header is read right
+ * away, the cells are read from this buffer when they are accessed and at most [cellCacheSize]
+ * of them are kept. For the version 2 format, which has no cell offsets in the header, all cells
+ * are skipped through once right away to find out where each starts.
+ */
+internal fun ByteBuffer.readMappedCountryBoundaries(cellCacheSize: Int): CountryBoundaries {
+    val source = ByteBufferSource(duplicate()).buffered()
+    val header = source.readHeader()
+
+    val offsets: IntArray
+    val ids: Collection<String>
+    val cellOffsets = header.cellOffsets
+    if (cellOffsets != null && header.ids != null) {
+        offsets = cellOffsets
+        ids = header.ids
+    } else {
+        // older format: find out where each cell starts by skipping through all of them once
+        val scannedIds = HashSet<String>()
+        offsets = source.scanCellOffsetsV2(header.rasterSize, scannedIds)
+        ids = scannedIds
+    }
+
+    val raster = LazyRaster(header.rasterSize, cellCacheSize) {
+        readCellAt(header.byteCount + offsets[it], header.byteCount + offsets[it + 1], header)
+    }
+    val countryIds = CountryIds.of(header.geometrySizes, ids)
+    return CountryBoundaries(
+        raster, header.rasterWidth, header.geometrySizes, countryIds, cellCacheSize
+    )
+}
+
+private fun ByteBuffer.readCellAt(
+    start: Int,
+    end: Int,
+    header: CountryBoundariesHeader
+): CountryBoundariesCell {
+    val cellBuffer = duplicate()
+    // cast for compatibility with Java 8, where ByteBuffer does not override these methods
+    (cellBuffer as java.nio.Buffer).limit(end).position(start)
+    return Buffer().transferFrom(cellBuffer).readCell(header)
+}
+
+/** Reads the given byte buffer from its current position up to its limit */
+private class ByteBufferSource(private val buffer: ByteBuffer) : RawSource {
+    override fun readAtMostTo(sink: Buffer, byteCount: Long): Long {
+        if (!buffer.hasRemaining()) return -1
+        val count = minOf(byteCount, buffer.remaining().toLong()).toInt()
+        val slice = buffer.slice()
+        (slice as java.nio.Buffer).limit(count)
+        sink.transferFrom(slice)
+        (buffer as java.nio.Buffer).position(buffer.position() + count)
+        return count.toLong()
+    }
+
+    override fun close() {}
+}
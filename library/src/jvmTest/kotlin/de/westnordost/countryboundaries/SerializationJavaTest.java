@@ -3,6 +3,9 @@ package de.westnordost.countryboundaries;
 import org.junit.Test;
 
 import java.io.*;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 import static org.junit.Assert.assertEquals;
 
@@ -38,5 +41,104 @@ public class SerializationJavaTest {
             file2.delete();
         }
     }
-}
 
+    @Test
+    public void memory_mapped_file_is_the_same_as_read_file() throws IOException {
+        File file = new File("src/commonTest/resources/boundaries180x90.ser");
+        CountryBoundaries boundaries;
+        try(InputStream in = new FileInputStream(file)) {
+            boundaries = CountryBoundariesUtils.deserializeFrom(in);
+        }
+
+        CountryBoundaries mappedBoundaries = CountryBoundariesUtils.deserializeMappedFrom(file);
+
+        assertEquals(boundaries.getIds(16.0, 45.5), mappedBoundaries.getIds(16.0, 45.5));
+        assertEquals(boundaries.getIds(-97.0, 33.0), mappedBoundaries.getIds(-97.0, 33.0));
+        assertEquals(boundaries, mappedBoundaries);
+    }
+
+    @Test
+    public void memory_mapped_file_of_current_version_is_the_same_as_read_file() throws IOException {
+        List<Point> square = Arrays.asList(
+                new Point(0, 0), new Point(0, 40000), new Point(40000, 40000), new Point(40000, 0)
+        );
+        List<Point> hole = Arrays.asList(
+                new Point(10000, 10000), new Point(20000, 10000),
+                new Point(20000, 20000), new Point(10000, 20000)
+        );
+        List<String> none = Collections.emptyList();
+        List<CountryAreas> noAreas = Collections.emptyList();
+        CountryBoundariesCell splitCell = new CountryBoundariesCell(none, noAreas, Arrays.asList(
+                new CountryBoundariesCell(Collections.singletonList("A"), noAreas),
+                new CountryBoundariesCell(
+                        none, Collections.singletonList(areas("B", square, hole))
+                ),
+                new CountryBoundariesCell(none, noAreas),
+                new CountryBoundariesCell(Arrays.asList("B", "C"), noAreas)
+        ));
+        CountryBoundaries boundaries = new CountryBoundaries(
+                Arrays.asList(
+                        splitCell,
+                        new CountryBoundariesCell(Collections.singletonList("A"), noAreas),
+                        new CountryBoundariesCell(none, Arrays.asList(
+                                areas("B", square, hole),
+                                areas("C", square, Collections.<Point>emptyList())
+                        )),
+                        splitCell
+                ),
+                2,
+                Collections.singletonMap("A", 1.0)
+        );
+
+        File file = File.createTempFile("boundaries", ".ser");
+        try {
+            try (FileOutputStream fos = new FileOutputStream(file)) {
+                CountryBoundariesUtils.serializeTo(fos, boundaries);
+            }
+            CountryBoundaries readBoundaries;
+            try (InputStream in = new FileInputStream(file)) {
+                readBoundaries = CountryBoundariesUtils.deserializeFrom(in);
+            }
+            // keeps only one cell at a time, so cells are read from the file again and again
+            CountryBoundaries mappedBoundaries =
+                    CountryBoundariesUtils.deserializeMappedFrom(file, 1);
+
+            for (int i = 0; i < 3; ++i) {
+                for (double lon = -180.0; lon <= 180.0; lon += 7.5) {
+                    for (double lat = -90.0; lat <= 90.0; lat += 7.5) {
+                        assertEquals(
+                                readBoundaries.getIds(lon, lat),
+                                mappedBoundaries.getIds(lon, lat)
+                        );
+                    }
+                }
+            }
+            for (double lon = -180.0; lon < 180.0; lon += 30.0) {
+                for (double lat = -90.0; lat < 90.0; lat += 30.0) {
+                    assertEquals(
+                            readBoundaries.getContainingIds(lon, lat, lon + 30.0, lat + 30.0),
+                            mappedBoundaries.getContainingIds(lon, lat, lon + 30.0, lat + 30.0)
+                    );
+                    assertEquals(
+                            readBoundaries.getIntersectingIds(lon, lat, lon + 30.0, lat + 30.0),
+                            mappedBoundaries.getIntersectingIds(lon, lat, lon + 30.0, lat + 30.0)
+                    );
+                }
+            }
+            assertEquals(boundaries, readBoundaries);
+            assertEquals(boundaries, mappedBoundaries);
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static CountryAreas areas(String id, List<Point> outer, List<Point> inner) {
+        return new CountryAreas(
+                id,
+                Collections.singletonList(outer),
+                inner.isEmpty()
+                        ? Collections.<List<Point>>emptyList()
+                        : Collections.singletonList(inner)
+        );
+    }
+}